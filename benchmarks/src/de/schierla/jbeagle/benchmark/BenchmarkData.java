@@ -0,0 +1,131 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.benchmark;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the input data used by the benchmarks
+ */
+final class BenchmarkData {
+
+	private static final Charset latin1 = Charset.forName("ISO-8859-1");
+
+	private static final String TEXT = "Lorem ipsum dolor sit amet, consectetur "
+			+ "adipisici elit, sed eiusmod tempor incidunt ut labore et dolore "
+			+ "magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation "
+			+ "ullamco laboris nisi ut aliquid ex ea commodi consequat.";
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Creates a page image
+	 * 
+	 * @param type
+	 *            "text" (black text on white), "photo" (gradients and
+	 *            noise) or "blank" (white)
+	 * @return 600x800 image as produced by the renderer
+	 */
+	static BufferedImage page(String type) {
+		BufferedImage im = new BufferedImage(600, 800,
+				BufferedImage.TYPE_4BYTE_ABGR);
+		Graphics2D g = im.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, 600, 800);
+		if ("text".equals(type)) {
+			g.setColor(Color.black);
+			g.setFont(new Font("Serif", Font.PLAIN, 14));
+			for (int y = 40; y < 780; y += 18)
+				g.drawString(TEXT.substring(y % 40, y % 40 + 70), 30, y);
+		} else if ("photo".equals(type)) {
+			Random random = new Random(42);
+			for (int y = 0; y < 800; y++)
+				for (int x = 0; x < 600; x++) {
+					int base = (x * 255 / 600 + y * 255 / 800) / 2;
+					int value = Math.max(0,
+							Math.min(255, base + random.nextInt(64) - 32));
+					im.setRGB(x, y, 0xff000000 | value << 16
+							| (255 - value) << 8 | (value / 2));
+				}
+		}
+		g.dispose();
+		return im;
+	}
+
+	/**
+	 * Creates a PDF document with text pages
+	 * 
+	 * @param pages
+	 *            number of pages
+	 * @return PDF file contents
+	 */
+	static byte[] pdf(int pages) {
+		List<String> objects = new ArrayList<String>();
+		StringBuilder kids = new StringBuilder();
+		objects.add("<< /Type /Catalog /Pages 2 0 R >>");
+		objects.add(null); // page tree, filled in below
+		objects.add("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>");
+		for (int i = 0; i < pages; i++) {
+			StringBuilder content = new StringBuilder(
+					"BT /F1 11 Tf 14 TL 50 800 Td\n");
+			for (int line = 0; line < 50; line++)
+				content.append("(").append(i + 1).append(": ")
+						.append(TEXT.substring(line % 40, line % 40 + 70))
+						.append(") '\n");
+			content.append("ET");
+			objects.add("<< /Length " + content.length() + " >>\nstream\n"
+					+ content + "\nendstream");
+			objects.add("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] "
+					+ "/Resources << /Font << /F1 3 0 R >> >> /Contents "
+					+ objects.size() + " 0 R >>");
+			kids.append(objects.size()).append(" 0 R ");
+		}
+		objects.set(1, "<< /Type /Pages /Kids [" + kids + "] /Count " + pages
+				+ " >>");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		List<Integer> offsets = new ArrayList<Integer>();
+		write(out, "%PDF-1.4\n");
+		for (int i = 0; i < objects.size(); i++) {
+			offsets.add(out.size());
+			write(out, (i + 1) + " 0 obj\n" + objects.get(i) + "\nendobj\n");
+		}
+		int xref = out.size();
+		write(out, "xref\n0 " + (objects.size() + 1)
+				+ "\n0000000000 65535 f \n");
+		for (int offset : offsets)
+			write(out, String.format("%010d 00000 n \n", offset));
+		write(out, "trailer\n<< /Size " + (objects.size() + 1)
+				+ " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+		return out.toByteArray();
+	}
+
+	private static void write(ByteArrayOutputStream out, String text) {
+		byte[] data = text.getBytes(latin1);
+		out.write(data, 0, data.length);
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.schierla.jbeagle.BeagleBook;
+
+/**
+ * Base64 decoding of book metadata by {@link BeagleBook}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BookBenchmark {
+
+	private String title;
+	private String author;
+	private BeagleBook book = new BeagleBook();
+
+	@Setup
+	public void setup() {
+		BeagleBook source = new BeagleBook("0123456789ABCDEF",
+				"Johann Wolfgang von Goethe",
+				"Die Leiden des jungen Werthers \u2013 Erster Teil");
+		title = source.getTitleBase64();
+		author = source.getAuthorBase64();
+	}
+
+	@Benchmark
+	public BeagleBook decode() {
+		book.setTitleBase64(title);
+		book.setAuthorBase64(author);
+		return book;
+	}
+}
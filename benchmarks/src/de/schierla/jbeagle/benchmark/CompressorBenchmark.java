@@ -0,0 +1,118 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.schierla.jbeagle.BeagleCompressor;
+import de.schierla.jbeagle.JZlibDeflater;
+import de.schierla.jbeagle.NativeDeflater;
+
+/**
+ * Encoding of rendered pages by {@link BeagleCompressor}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressorBenchmark {
+
+	@Param({ "text", "photo", "blank" })
+	String page;
+
+	@Param({ "jzlib", "native" })
+	String deflater;
+
+	private BufferedImage image;
+	private BeagleCompressor compressor;
+	private byte[] target = new byte[BeagleCompressor.MAX_COMPRESSED_SIZE];
+
+	@Setup
+	public void setup() {
+		image = BenchmarkData.page(page);
+		compressor = createCompressor();
+	}
+
+	@TearDown
+	public void tearDown() {
+		compressor.close();
+	}
+
+	private BeagleCompressor createCompressor() {
+		return new BeagleCompressor(
+				"native".equals(deflater) ? new NativeDeflater()
+						: new JZlibDeflater());
+	}
+
+	/**
+	 * Encodes with the configured compressor; from the second invocation on,
+	 * blank pages reuse the compressed content of the first one
+	 */
+	@Benchmark
+	public byte[] encodeImage() throws IOException {
+		return compressor.encode(image);
+	}
+
+	@Benchmark
+	public int encodeInto() throws IOException {
+		return compressor.encode(image, target, 0);
+	}
+
+	/**
+	 * Encodes with a new compressor each time, so no content is reused
+	 */
+	@Benchmark
+	public int encodeUncached(FreshCompressor fresh) throws IOException {
+		return fresh.compressor.encode(image, target, 0);
+	}
+
+	@Benchmark
+	public byte[] pack() {
+		return compressor.pack(image);
+	}
+
+	/**
+	 * Compressor created for a single invocation
+	 */
+	@State(Scope.Thread)
+	public static class FreshCompressor {
+		BeagleCompressor compressor;
+
+		@Setup(Level.Invocation)
+		public void setup(CompressorBenchmark benchmark) {
+			compressor = benchmark.createCompressor();
+		}
+
+		@TearDown(Level.Invocation)
+		public void tearDown() {
+			compressor.close();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.schierla.jbeagle.BeagleBook;
+import de.schierla.jbeagle.BeagleConnector;
+import de.schierla.jbeagle.BeagleConnector.BookListener;
+import de.schierla.jbeagle.transport.BeagleTransport;
+
+/**
+ * Parsing of a GETBOOKS response listing 1,000 books by
+ * {@link BeagleConnector#listBooks()} and its streaming variant
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConnectorBenchmark {
+
+	private static final int BOOKS = 1000;
+
+	private BeagleConnector connector;
+
+	@Setup
+	public void setup() throws IOException {
+		StringBuilder response = new StringBuilder();
+		for (int i = 0; i < BOOKS; i++) {
+			BeagleBook book = new BeagleBook(String.format("%016X", i),
+					"Author " + i, "A book with a rather long title, volume "
+							+ i);
+			response.append("BOOK ID=").append(book.getId())
+					.append(" FIRSTPAGE=0 LASTPAGE=").append(100 + i)
+					.append(" CURRENTPAGE=").append(i % 100)
+					.append(" AUTHOR=").append(book.getAuthorBase64())
+					.append(" TITLE=").append(book.getTitleBase64())
+					.append('\n');
+		}
+		response.append("GETBOOKSOK\n");
+		connector = new BeagleConnector(new ReplayTransport(response
+				.toString().getBytes(Charset.forName("US-ASCII"))));
+	}
+
+	@Benchmark
+	public List<BeagleBook> listBooks() throws IOException {
+		return connector.listBooks();
+	}
+
+	@Benchmark
+	public void listBooksStreaming(final Blackhole blackhole)
+			throws IOException {
+		connector.listBooks(new BookListener() {
+			public void bookListed(BeagleBook book) {
+				blackhole.consume(book);
+			}
+		});
+	}
+
+	/**
+	 * Transport answering every request with the same response
+	 */
+	private static class ReplayTransport implements BeagleTransport {
+		private final byte[] response;
+		private int pos;
+
+		ReplayTransport(byte[] response) {
+			this.response = response;
+		}
+
+		public InputStream getInputStream() {
+			return new InputStream() {
+				@Override
+				public int read() {
+					int ret = response[pos] & 0xff;
+					pos = (pos + 1) % response.length;
+					return ret;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					len = Math.min(len, response.length - pos);
+					System.arraycopy(response, pos, b, off, len);
+					pos = (pos + len) % response.length;
+					return len;
+				}
+			};
+		}
+
+		public OutputStream getOutputStream() {
+			return new ByteArrayOutputStream() {
+				@Override
+				public void flush() {
+					reset();
+				}
+			};
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jpedal.PdfDecoder;
+import org.jpedal.exception.PdfException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.schierla.jbeagle.BeagleRenderer;
+
+/**
+ * Rendering of a generated PDF document by {@link BeagleRenderer}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RendererBenchmark {
+
+	private static final int PAGES = 20;
+
+	private File file;
+	private PdfDecoder decoder;
+	private BeagleRenderer renderer;
+	private int page;
+
+	@Setup
+	public void setup() throws IOException, PdfException {
+		file = File.createTempFile("jbeagle", ".pdf");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(BenchmarkData.pdf(PAGES));
+		} finally {
+			out.close();
+		}
+		decoder = new PdfDecoder();
+		decoder.openPdfFile(file.getAbsolutePath());
+		renderer = new BeagleRenderer(decoder, "Author", "Title");
+	}
+
+	@TearDown
+	public void tearDown() {
+		decoder.closePdfFile();
+		file.delete();
+	}
+
+	@Benchmark
+	public BufferedImage renderPage() throws PdfException {
+		page = (page + 1) % PAGES;
+		return renderer.render(page, false);
+	}
+
+	@Benchmark
+	public BufferedImage renderTitlePage() throws PdfException {
+		return renderer.render(0, true);
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import de.schierla.jbeagle.BeagleConnector.PageSource;
+import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+
+/**
+ * Book converted ahead of time into compressed beagle pages, stored in a
+ * <code>.beaglebook</code> file. The file consists of
+ * <ul>
+ * <li>the magic <code>BEAGLEBK</code> and the format version (int)</li>
+ * <li>book id, title and author (modified UTF-8, see
+ * {@link DataOutputStream#writeUTF(String)})</li>
+ * <li>the number of document pages n (int, without the title page)</li>
+ * <li>n + 2 file offsets (long): the start of each of the n + 1 pages and
+ * the end of the last one</li>
+ * <li>the compressed pages, as created by {@link BeagleCompressor}</li>
+ * </ul>
+ * Opened bundles are memory mapped, so pages are uploaded straight from the
+ * file without preparing them.
+ */
+public class BeagleBundle implements PageSource {
+
+	/** File name suffix of bundles */
+	public static final String SUFFIX = ".beaglebook";
+
+	private static final byte[] MAGIC = { 'B', 'E', 'A', 'G', 'L', 'E', 'B',
+			'K' };
+	private static final int VERSION = 1;
+	/** Maximum size of a bundle (mapped as a single buffer) */
+	private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+	private final File file;
+	private final String id;
+	private final String title;
+	private final String author;
+	private final int pages;
+	private final long[] offsets;
+	private final MappedByteBuffer data;
+
+	private BeagleBundle(File file, String id, String title, String author,
+			long[] offsets, MappedByteBuffer data) {
+		this.file = file;
+		this.id = id;
+		this.title = title;
+		this.author = author;
+		this.pages = offsets.length - 2;
+		this.offsets = offsets;
+		this.data = data;
+	}
+
+	/**
+	 * Converts a document into a bundle, preparing the pages on all
+	 * available cores
+	 * 
+	 * @param document
+	 *            document to convert (a PDF document, comic book archive or
+	 *            directory of images, see
+	 *            {@link BeagleUpload#openSource(File, String, BeaglePageCache, long)})
+	 * @param bundle
+	 *            bundle file to create
+	 * @param progress
+	 *            progress listener (may be null)
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public static void convert(File document, File bundle,
+			ProgressListener progress) throws IOException {
+		PageSource source = BeagleUpload.openSource(document, null, null,
+				Long.MAX_VALUE);
+		File temp = new File(bundle.getPath() + ".tmp");
+		try {
+			source.start(0);
+			int pages = source.getPageCount();
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(header);
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(source.getId());
+			out.writeUTF(source.getTitle());
+			out.writeUTF(source.getAuthor());
+			out.writeInt(pages);
+			int index = out.size();
+			for (int i = 0; i < pages + 2; i++)
+				out.writeLong(0);
+			out.close();
+
+			ByteBuffer offsets = ByteBuffer.allocate((pages + 2) * 8);
+			RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+			try {
+				raf.setLength(0);
+				FileChannel channel = raf.getChannel();
+				channel.write(ByteBuffer.wrap(header.toByteArray()));
+				long position = channel.position();
+				for (int i = 0; i <= pages; i++) {
+					ByteBuffer buffer = source.getCompressedPage(i)
+							.duplicate();
+					offsets.putLong(position);
+					while (buffer.hasRemaining())
+						position += channel.write(buffer, position);
+					if (position > MAX_SIZE)
+						throw new IOException(document
+								+ " is too large for a beagle book");
+					if (progress != null)
+						progress.progressChanged(i, pages);
+				}
+				offsets.putLong(position);
+				offsets.flip();
+				long at = index;
+				while (offsets.hasRemaining())
+					at += channel.write(offsets, at);
+				channel.force(true);
+			} finally {
+				raf.close();
+			}
+			if (bundle.exists() && !bundle.delete() || !temp.renameTo(bundle))
+				throw new IOException("Could not create " + bundle);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			source.close();
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Opens a bundle, mapping it into memory
+	 * 
+	 * @param file
+	 *            bundle file
+	 * @return the bundle
+	 * @throws IOException
+	 *             if the file cannot be read or is no valid bundle
+	 */
+	public static BeagleBundle open(File file) throws IOException {
+		String id, title, author;
+		long[] offsets;
+		long headerSize;
+		if (file.length() > MAX_SIZE)
+			throw new IOException(file + " is too large (beagle books are "
+					+ "limited to " + MAX_SIZE + " bytes)");
+		FileInputStream input = new FileInputStream(file);
+		DataInputStream in = new DataInputStream(input);
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException(file + " is no beagle book");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported beagle book version "
+						+ version);
+			id = in.readUTF();
+			title = in.readUTF();
+			author = in.readUTF();
+			int pages = in.readInt();
+			if (pages < 0 || (pages + 2L) * 8 > file.length())
+				throw new IOException("Invalid page count " + pages);
+			offsets = new long[pages + 2];
+			for (int i = 0; i < offsets.length; i++)
+				offsets[i] = in.readLong();
+			headerSize = input.getChannel().position();
+		} finally {
+			in.close();
+		}
+		if (offsets[0] < headerSize)
+			throw new IOException("Invalid page index");
+		for (int i = 1; i < offsets.length; i++)
+			if (offsets[i] < offsets[i - 1])
+				throw new IOException("Invalid page index");
+		if (offsets[offsets.length - 1] > file.length())
+			throw new IOException(file + " is truncated");
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer data = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new BeagleBundle(file, id, title, author, offsets, data);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Retrieves a compressed page without copying it
+	 * 
+	 * @param nr
+	 *            upload page number (0 is the title page)
+	 * @return read-only view of the page in the mapped file
+	 */
+	public ByteBuffer getPage(int nr) {
+		if (nr < 0 || nr > pages)
+			throw new IndexOutOfBoundsException("Invalid page " + nr);
+		ByteBuffer ret = data.asReadOnlyBuffer();
+		ret.limit((int) offsets[nr + 1]);
+		ret.position((int) offsets[nr]);
+		return ret.slice();
+	}
+
+	/**
+	 * Uploads the book to the beagle, continuing a partial upload of the
+	 * same book
+	 * 
+	 * @param beagle
+	 *            the beagle to upload to
+	 * @param progress
+	 *            progress listener (may be null)
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void upload(BeagleConnector beagle, ProgressListener progress)
+			throws IOException {
+		BeagleUpload.prepare(this, beagle.getCatalog().getBooks(), null)
+				.upload(beagle, progress);
+	}
+
+	public void start(int first) {
+	}
+
+	public ByteBuffer getCompressedPage(int nr) {
+		return getPage(nr);
+	}
+
+	public PageStatistics getStatistics(int nr) {
+		PageStatistics ret = new PageStatistics(nr);
+		ret.size = (int) (offsets[nr + 1] - offsets[nr]);
+		ret.cached = true;
+		return ret;
+	}
+
+	/**
+	 * Does nothing, the mapping is released when the bundle is no longer
+	 * used
+	 */
+	public void close() {
+	}
+
+	/**
+	 * @return the book id (bundles are identified by their id)
+	 */
+	public String getDocument() {
+		return id;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	/**
+	 * @return number of pages of the document (without the title page)
+	 */
+	public int getPageCount() {
+		return pages;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.schierla.jbeagle.BeagleConnector.BookListener;
+
+/**
+ * Mirror of the books present on the beagle, avoiding a full GETBOOKS
+ * exchange whenever the book list is needed. The mirror is updated from the
+ * successful deletes and uploads of its {@link BeagleConnector} and
+ * validated against the SD card revision reported by
+ * {@link BeagleConnector#getInfo()}: the books are only listed again if the
+ * revision differs from the one expected after the own changes (or an
+ * upload was aborted). Every acknowledged BOOK, ENDBOOK, DELETEBOOK and
+ * VIRGIN command is expected to increase the revision by one, so any change
+ * by others makes the revisions differ.
+ */
+public class BeagleCatalog {
+
+	private static final String REVISION = "SDCONTENT.REVISION";
+
+	private final BeagleConnector beagle;
+	private Map<String, BeagleBook> books;
+	private String revision;
+	private int bumps;
+	private boolean uploading;
+	private BeagleBook upload;
+
+	BeagleCatalog(BeagleConnector beagle) {
+		this.beagle = beagle;
+	}
+
+	/**
+	 * Retrieves the books present on the beagle
+	 * 
+	 * @return list of books present
+	 * @throws IOException
+	 */
+	public synchronized List<BeagleBook> getBooks() throws IOException {
+		validate(null);
+		return new ArrayList<BeagleBook>(books.values());
+	}
+
+	/**
+	 * Retrieves the books present on the beagle, passing every book to the
+	 * listener as soon as it is known
+	 * 
+	 * @param listener
+	 *            listener to receive the books
+	 * @throws IOException
+	 */
+	public synchronized void getBooks(BookListener listener)
+			throws IOException {
+		if (!validate(listener))
+			for (BeagleBook book : new ArrayList<BeagleBook>(books.values()))
+				listener.bookListed(book);
+	}
+
+	/**
+	 * Retrieves a book present on the beagle
+	 * 
+	 * @param id
+	 *            book id
+	 * @return the book; null, if not present
+	 * @throws IOException
+	 */
+	public synchronized BeagleBook getBook(String id) throws IOException {
+		validate(null);
+		return books.get(id);
+	}
+
+	/**
+	 * Discards the mirror, so that the books are listed again when needed
+	 */
+	public synchronized void invalidate() {
+		books = null;
+		revision = null;
+		bumps = 0;
+	}
+
+	/**
+	 * Lists the books again unless the mirror is still valid
+	 * 
+	 * @return whether the books have been listed (and passed to the
+	 *         listener)
+	 */
+	private boolean validate(final BookListener listener) throws IOException {
+		String current = beagle.getInfo().get(REVISION);
+		if (books != null && !uploading && current != null
+				&& current.equals(getExpectedRevision())) {
+			revision = current;
+			bumps = 0;
+			return false;
+		}
+		final Map<String, BeagleBook> listed = new LinkedHashMap<String, BeagleBook>();
+		beagle.listBooks(new BookListener() {
+			public void bookListed(BeagleBook book) {
+				listed.put(book.getId(), book);
+				if (listener != null)
+					listener.bookListed(book);
+			}
+		});
+		books = listed;
+		revision = current;
+		bumps = 0;
+		uploading = false;
+		return true;
+	}
+
+	/**
+	 * @return the revision expected after the own changes; null, if unknown
+	 */
+	private String getExpectedRevision() {
+		if (bumps == 0 || revision == null)
+			return revision;
+		try {
+			return Long.toString(Long.parseLong(revision) + bumps);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	synchronized void bookStarted(String id, String title, String author) {
+		uploading = true;
+		upload = new BeagleBook(id, author, title);
+		BeagleBook existing = books == null ? null : books.get(id);
+		if (existing != null) {
+			upload.setFirstPage(existing.getFirstPage());
+			upload.setLastPage(existing.getLastPage());
+			upload.setCurrentPage(existing.getCurrentPage());
+		}
+	}
+
+	synchronized void pageUploaded(int nr) {
+		if (upload != null && nr > upload.getLastPage())
+			upload.setLastPage(nr);
+	}
+
+	synchronized void bookUploaded() {
+		if (books != null && upload != null)
+			books.put(upload.getId(), upload);
+		// BOOK and ENDBOOK
+		bumps += 2;
+		upload = null;
+		uploading = false;
+	}
+
+	synchronized void bookDeleted(String id) {
+		if (books != null)
+			books.remove(id);
+		bumps++;
+	}
+
+	synchronized void booksDeleted() {
+		if (books != null)
+			books.clear();
+		bumps++;
+	}
+}
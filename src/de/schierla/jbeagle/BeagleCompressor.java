@@ -18,52 +18,480 @@
 package de.schierla.jbeagle;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
 
-import com.jcraft.jzlib.Deflater;
-import com.jcraft.jzlib.DeflaterOutputStream;
-import com.jcraft.jzlib.JZlib;
-
+/**
+ * Encoder converting 600x800 images into compressed beagle pages. An encoder
+ * owns all buffers needed for encoding and reuses them for every page, so
+ * each thread should use its own instance.
+ * <p>
+ * Pages are encoded as a single gzip stream. Only pages whose content above
+ * the progress bar is uniform or repeated (see {@link PageMemo}) are
+ * composed of the reused compressed content and the compressed progress
+ * bar.
+ */
 public class BeagleCompressor {
 
-	private static byte[] compressBuffer(byte[] rawBuffer) throws IOException {
-		Deflater deflater = new Deflater();
-		deflater.init(JZlib.Z_DEFAULT_COMPRESSION, 27, 9);
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);
-		dos.write(rawBuffer);
-		dos.flush();
-		dos.close();
-		return out.toByteArray();
-	}
-
-	private static byte[] createRawBuffer(BufferedImage page) {
-		byte[] raw = new byte[800 * 600 / 2 + 64];
-
-		int[] pixels = page.getRGB(0, 0, 600, 800, null, 0, 600);
-		for (int i = 0; i < 800 * 600 / 2; i++) {
-			int gray1 = four_bits((pixels[2 * i] >> 16) & 0xff,
-					(pixels[2 * i] >> 8) & 0xff, (pixels[2 * i]) & 0xff);
-			int gray2 = four_bits((pixels[2 * i + 1] >> 16) & 0xff,
-					(pixels[2 * i + 1] >> 8) & 0xff, (pixels[2 * i + 1]) & 0xff);
-			raw[i] = (byte) (gray2 | gray1 * 0x10);
-		}
-		for (int i = 800 * 600 / 2; i < 800 * 600 / 2 + 64; i++) {
-			raw[i] = 0;
+	/** Size of the uncompressed page buffer (4 bits per pixel + padding) */
+	public static final int RAW_SIZE = 800 * 600 / 2 + 64;
+
+	/**
+	 * Size of the page content above the progress bar drawn by
+	 * {@link BeagleRenderer} (rows 0-794)
+	 */
+	static final int CONTENT_SIZE = 795 * 300;
+
+	/**
+	 * Version of the page encoding, to be increased whenever the encoder
+	 * produces different output for the same image
+	 */
+	public static final int FORMAT_VERSION = 3;
+
+	static final int GZIP_HEADER_SIZE = 10;
+	static final int GZIP_TRAILER_SIZE = 8;
+
+	/**
+	 * Upper bound for the size of a compressed page (including the stored
+	 * block and flush overhead of every window of {@link NativeDeflater})
+	 */
+	public static final int MAX_COMPRESSED_SIZE = RAW_SIZE + RAW_SIZE / 1000
+			+ (RAW_SIZE / NativeDeflater.WINDOW_SIZE + 1) * 16 + 64;
+
+	private static final ThreadLocal<BeagleCompressor> encoders = new ThreadLocal<BeagleCompressor>() {
+		@Override
+		protected BeagleCompressor initialValue() {
+			return new BeagleCompressor();
 		}
-		return raw;
+	};
+
+	private final byte[] raw = new byte[RAW_SIZE];
+	private final int[] pixels = new int[600];
+	private final byte[] compressed = new byte[MAX_COMPRESSED_SIZE];
+	private final byte[] content = new byte[MAX_COMPRESSED_SIZE];
+	private final BeagleDeflater deflater;
+	private final byte[][] uniformContents = new byte[256][];
+	private final CRC32 crc = new CRC32();
+	private MessageDigest digest;
+	private PageMemo memo;
+	private long packTime;
+	private long deflateTime;
+	private boolean contentReused;
+
+	private static volatile boolean nativeDeflater;
+	private static volatile int defaultLevel = BeagleDeflater.DEFAULT_COMPRESSION;
+	private static volatile int defaultStrategy = BeagleDeflater.DEFAULT_STRATEGY;
+
+	/**
+	 * Creates an encoder using the default deflate implementation (jzlib,
+	 * unless changed by {@link #setDefaultCompression(boolean, int, int)})
+	 */
+	public BeagleCompressor() {
+		this(createDefaultDeflater());
 	}
 
+	/**
+	 * Creates an encoder using the given deflate implementation
+	 * 
+	 * @param deflater
+	 *            deflate implementation (owned by this encoder)
+	 */
+	public BeagleCompressor(BeagleDeflater deflater) {
+		this.deflater = deflater;
+	}
+
+	/**
+	 * Selects the deflate implementation of the encoders created afterwards
+	 * by {@link #BeagleCompressor()}
+	 * 
+	 * @param nativeZlib
+	 *            use {@link NativeDeflater} instead of {@link JZlibDeflater}
+	 * @param level
+	 *            compression level (0-9, or
+	 *            {@link BeagleDeflater#DEFAULT_COMPRESSION})
+	 * @param strategy
+	 *            compression strategy (see {@link BeagleDeflater})
+	 */
+	public static void setDefaultCompression(boolean nativeZlib, int level,
+			int strategy) {
+		if (level < -1 || level > 9)
+			throw new IllegalArgumentException("Invalid compression level "
+					+ level);
+		if (strategy < 0 || strategy > BeagleDeflater.HUFFMAN_ONLY)
+			throw new IllegalArgumentException("Invalid strategy " + strategy);
+		nativeDeflater = nativeZlib;
+		defaultLevel = level;
+		defaultStrategy = strategy;
+	}
+
+	private static BeagleDeflater createDefaultDeflater() {
+		if (nativeDeflater)
+			return new NativeDeflater(defaultLevel, defaultStrategy);
+		return new JZlibDeflater(defaultLevel, defaultStrategy);
+	}
+
+	/**
+	 * Encodes an image using an encoder owned by the current thread
+	 * 
+	 * @param page
+	 *            image to encode (600x800)
+	 * @return compressed page
+	 * @throws IOException
+	 */
 	public static byte[] encodeImage(BufferedImage page) throws IOException {
+		return encoders.get().encode(page);
+	}
+
+	/**
+	 * Encodes an image
+	 * 
+	 * @param page
+	 *            image to encode (600x800)
+	 * @return compressed page
+	 * @throws IOException
+	 */
+	public byte[] encode(BufferedImage page) throws IOException {
+		int length = encode(page, compressed, 0);
+		return Arrays.copyOf(compressed, length);
+	}
+
+	/**
+	 * Encodes an image into the given buffer
+	 * 
+	 * @param page
+	 *            image to encode (600x800)
+	 * @param target
+	 *            buffer to write the compressed page to (should provide
+	 *            {@link #MAX_COMPRESSED_SIZE} bytes)
+	 * @param offset
+	 *            offset in the buffer
+	 * @return length of the compressed page
+	 * @throws IOException
+	 *             if the compressed page does not fit into the buffer
+	 */
+	public int encode(BufferedImage page, byte[] target, int offset)
+			throws IOException {
+		if (page.getWidth() != 600 || page.getHeight() != 800)
+			throw new IllegalArgumentException("The image has to be 600x800.");
+		long start = System.nanoTime();
+		createRawBuffer(page);
+		long packed = System.nanoTime();
+		int length = compressRawBuffer(target, offset);
+		packTime = packed - start;
+		deflateTime = System.nanoTime() - packed;
+		return length;
+	}
+
+	/**
+	 * Releases the deflate implementation (e.g. native zlib memory); the
+	 * encoder cannot be used afterwards
+	 */
+	public void close() {
+		deflater.close();
+	}
+
+	/**
+	 * @return encoding and deflate settings, identifying the produced pages
+	 *         (e.g. in cache keys, a valid part of a file name)
+	 */
+	public String getParameters() {
+		return "v" + FORMAT_VERSION + "-" + deflater.getParameters();
+	}
+
+	/**
+	 * @return time spent quantizing and packing the last encoded page (in
+	 *         nanoseconds)
+	 */
+	public long getPackTime() {
+		return packTime;
+	}
+
+	/**
+	 * @return time spent compressing the last encoded page, including the
+	 *         lookup of already compressed pages (in nanoseconds)
+	 */
+	public long getDeflateTime() {
+		return deflateTime;
+	}
+
+	/**
+	 * @return whether the content of the last encoded page was not compressed
+	 *         but reused (from a uniform page or the memo)
+	 */
+	public boolean isContentReused() {
+		return contentReused;
+	}
+
+	/**
+	 * Sets the memo used to share compressed pages between encoders (e.g.
+	 * the encoders of all threads working on the same upload)
+	 * 
+	 * @param memo
+	 *            memo of compressed pages (may be null)
+	 */
+	public void setMemo(PageMemo memo) {
+		this.memo = memo;
+	}
+
+	/**
+	 * Decompresses a page, checking that it is a valid beagle page
+	 * 
+	 * @param compressed
+	 *            compressed page
+	 * @return uncompressed page buffer ({@link #RAW_SIZE} bytes)
+	 * @throws IOException
+	 *             if the page is no valid gzip stream of {@link #RAW_SIZE}
+	 *             bytes
+	 */
+	public static byte[] decode(byte[] compressed) throws IOException {
+		byte[] ret = new byte[RAW_SIZE];
+		DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new ByteArrayInputStream(compressed)));
+		try {
+			in.readFully(ret);
+			if (in.read() != -1)
+				throw new IOException("Invalid page size");
+		} finally {
+			in.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Converts an image into the uncompressed beagle page format (two pixels
+	 * per byte, 4 bits per pixel)
+	 * 
+	 * @param page
+	 *            image to convert (600x800)
+	 * @return buffer of {@link #RAW_SIZE} bytes owned by this encoder (valid
+	 *         until the next call)
+	 */
+	public byte[] pack(BufferedImage page) {
 		if (page.getWidth() != 600 || page.getHeight() != 800)
 			throw new IllegalArgumentException("The image has to be 600x800.");
-		byte[] rawBuffer = createRawBuffer(page);
-		return compressBuffer(rawBuffer);
+		createRawBuffer(page);
+		return raw;
+	}
+
+	private int compressRawBuffer(byte[] target, int offset)
+			throws IOException {
+		contentReused = false;
+		int value = getUniformValue();
+		if (value != -1) {
+			if (uniformContents[value] == null)
+				uniformContents[value] = compressContent();
+			else
+				contentReused = true;
+			return compose(uniformContents[value], target, offset);
+		}
+
+		if (memo != null) {
+			if (digest == null) {
+				try {
+					digest = MessageDigest.getInstance("MD5");
+				} catch (NoSuchAlgorithmException e) {
+					throw new IOException(e);
+				}
+			}
+			digest.update(raw, 0, CONTENT_SIZE);
+			ByteBuffer key = ByteBuffer.wrap(digest.digest());
+			byte[] content = memo.get(key);
+			if (content == null) {
+				// first occurrence, encoded as a single stream
+				memo.put(key, PageMemo.SEEN);
+			} else {
+				if (content == PageMemo.SEEN) {
+					content = compressContent();
+					memo.put(key, content);
+				} else {
+					contentReused = true;
+				}
+				return compose(content, target, offset);
+			}
+		}
+		return deflater.compress(raw, RAW_SIZE, target, offset);
 	}
 
-	private static int four_bits(int r, int g, int b) {
-		int gray = (int) (r * 0.2126 + g * 0.7152 + b * 0.0722);
-		return (gray & 0xE0) / 0x10;
+	/**
+	 * Compresses the page content above the progress bar into raw deflate
+	 * data ending with a full flush, so it can be reused for pages only
+	 * differing in their progress bar
+	 */
+	private byte[] compressContent() throws IOException {
+		int length = deflater.compressRaw(raw, 0, CONTENT_SIZE, false,
+				content, 0);
+		return Arrays.copyOf(content, length);
+	}
+
+	/**
+	 * Writes a page as gzip frame around the given compressed content and
+	 * the compressed progress bar
+	 */
+	private int compose(byte[] content, byte[] target, int offset)
+			throws IOException {
+		if (target.length - offset < GZIP_HEADER_SIZE + GZIP_TRAILER_SIZE)
+			throw new IOException("Could not compress page (buffer too small)");
+		int pos = writeGzipHeader(target, offset);
+		pos += copy(content, target, pos);
+		pos += deflater.compressRaw(raw, CONTENT_SIZE, RAW_SIZE - CONTENT_SIZE,
+				true, target, pos);
+		if (target.length - pos < GZIP_TRAILER_SIZE)
+			throw new IOException("Could not compress page (buffer too small)");
+		crc.reset();
+		crc.update(raw, 0, RAW_SIZE);
+		writeGzipTrailer(target, pos, (int) crc.getValue(), RAW_SIZE);
+		return pos + GZIP_TRAILER_SIZE - offset;
+	}
+
+	private static int copy(byte[] page, byte[] target, int offset)
+			throws IOException {
+		if (target.length - offset < page.length)
+			throw new IOException("Could not compress page (buffer too small)");
+		System.arraycopy(page, 0, target, offset, page.length);
+		return page.length;
+	}
+
+	/**
+	 * Writes a gzip header without file name and modification time
+	 * 
+	 * @return position after the header
+	 */
+	static int writeGzipHeader(byte[] target, int pos) {
+		target[pos++] = (byte) 0x1f;
+		target[pos++] = (byte) 0x8b;
+		target[pos++] = 8; // deflate
+		target[pos++] = 0; // no flags
+		for (int i = 0; i < 4; i++)
+			target[pos++] = 0; // no modification time
+		target[pos++] = 0; // no extra flags
+		target[pos++] = (byte) 0xff; // unknown OS
+		return pos;
+	}
+
+	/**
+	 * Writes the gzip trailer (crc and length of the uncompressed data)
+	 */
+	static void writeGzipTrailer(byte[] target, int pos, int crc, int length) {
+		for (int i = 0; i < 4; i++)
+			target[pos + i] = (byte) (crc >> (8 * i));
+		for (int i = 0; i < 4; i++)
+			target[pos + 4 + i] = (byte) (length >> (8 * i));
+	}
+
+	/**
+	 * Checks whether all bytes of the page content (ignoring the progress
+	 * bar) are equal, looking at one byte per row first to reject pages with
+	 * content quickly
+	 * 
+	 * @return the byte value of a uniform page; -1, if not uniform
+	 */
+	private int getUniformValue() {
+		byte value = raw[0];
+		for (int i = 150; i < CONTENT_SIZE; i += 300)
+			if (raw[i] != value)
+				return -1;
+		for (int i = 1; i < CONTENT_SIZE; i++)
+			if (raw[i] != value)
+				return -1;
+		return value & 0xff;
+	}
+
+	private void createRawBuffer(BufferedImage page) {
+		WritableRaster raster = page.getRaster();
+		int x0 = -raster.getSampleModelTranslateX();
+		int y0 = -raster.getSampleModelTranslateY();
+
+		switch (page.getType()) {
+		case BufferedImage.TYPE_4BYTE_ABGR:
+		case BufferedImage.TYPE_3BYTE_BGR: {
+			ComponentSampleModel model = (ComponentSampleModel) raster
+					.getSampleModel();
+			DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+			int[] bands = model.getBandOffsets();
+			BeagleQuantizer.pack(buffer.getData(), buffer.getOffset() + y0
+					* model.getScanlineStride() + x0 * model.getPixelStride(),
+					model.getPixelStride(), model.getScanlineStride(),
+					bands[0], bands[1], bands[2], raw);
+			break;
+		}
+		case BufferedImage.TYPE_BYTE_GRAY: {
+			ComponentSampleModel model = (ComponentSampleModel) raster
+					.getSampleModel();
+			DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+			BeagleQuantizer.pack(buffer.getData(), buffer.getOffset() + y0
+					* model.getScanlineStride() + x0 * model.getPixelStride(),
+					model.getPixelStride(), model.getScanlineStride(), raw);
+			break;
+		}
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB: {
+			SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster
+					.getSampleModel();
+			DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+			int[] data = buffer.getData();
+			int offset = buffer.getOffset() + y0 * model.getScanlineStride()
+					+ x0;
+			for (int y = 0; y < 800; y++)
+				BeagleQuantizer.packRow(data,
+						offset + y * model.getScanlineStride(), y, raw);
+			break;
+		}
+		default:
+			for (int y = 0; y < 800; y++) {
+				page.getRGB(0, y, 600, 1, pixels, 0, 600);
+				BeagleQuantizer.packRow(pixels, 0, y, raw);
+			}
+		}
+	}
+
+	/**
+	 * Compressed page contents (without the progress bar), shared by the
+	 * encoders of one upload so that repeated pages are only compressed once.
+	 * Contents seen once are only marked, their compressed content is
+	 * created when they recur. Only the most recently used pages are kept.
+	 */
+	public static class PageMemo {
+		/** Marker of contents seen once */
+		static final byte[] SEEN = new byte[0];
+
+		private final Map<ByteBuffer, byte[]> pages;
+
+		/**
+		 * @param capacity
+		 *            maximum number of pages to remember
+		 */
+		public PageMemo(final int capacity) {
+			pages = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<ByteBuffer, byte[]> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		synchronized byte[] get(ByteBuffer key) {
+			return pages.get(key);
+		}
+
+		synchronized void put(ByteBuffer key, byte[] page) {
+			pages.put(key, page);
+		}
 	}
 }
@@ -18,33 +18,99 @@
 package de.schierla.jbeagle;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import javax.microedition.io.StreamConnection;
 
+import de.schierla.jbeagle.transport.BeagleTransport;
+import de.schierla.jbeagle.transport.RfcommTransport;
+
 /**
  * Class handling the communication with the txtr beagle
  */
 public class BeagleConnector {
 
-	private BufferedReader input;
+	/** Number of delete commands sent ahead by {@link #deleteBooks(Collection)} */
+	public static final int DELETE_WINDOW = 16;
+
+	/** Default size of the chunks written to the connection */
+	public static final int DEFAULT_CHUNK_SIZE = 512;
 
-	private OutputStreamWriter output;
+	private static final Charset ascii = Charset.forName("US-ASCII");
+
+	private BufferedReader input;
 
 	private OutputStream outputStream;
 
+	private byte[] frame = new byte[256];
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private BeagleTransport transport;
+
+	private BeagleCatalog catalog;
+
 	public BeagleConnector(StreamConnection connection) throws IOException {
+		this(new RfcommTransport(connection));
+	}
+
+	public BeagleConnector(BeagleTransport transport) throws IOException {
+		this.transport = transport;
 		input = new BufferedReader(new InputStreamReader(
-				connection.openInputStream()));
-		outputStream = connection.openOutputStream();
-		output = new OutputStreamWriter(outputStream);
+				transport.getInputStream()));
+		outputStream = transport.getOutputStream();
+	}
+
+	/**
+	 * Closes the connection to the beagle
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		transport.close();
+	}
+
+	/**
+	 * Retrieves the mirror of the books present on the beagle, which is kept
+	 * up to date by the deletes and uploads of this connector
+	 * 
+	 * @return the catalog of this beagle
+	 */
+	public synchronized BeagleCatalog getCatalog() {
+		if (catalog == null)
+			catalog = new BeagleCatalog(this);
+		return catalog;
+	}
+
+	/**
+	 * Sets the size of the chunks commands and pages are written in (should
+	 * match the MTU of the connection)
+	 * 
+	 * @param chunkSize
+	 *            chunk size in bytes
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Invalid chunk size "
+					+ chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
 	}
 
 	/**
@@ -61,6 +127,58 @@ public class BeagleConnector {
 			throw new IOException("Could not delete book");
 		if (!"DELETEBOOKOK".equals(line))
 			throw new IOException("Invalid response " + line);
+		if (catalog != null)
+			catalog.bookDeleted(id);
+	}
+
+	/**
+	 * Deletes several books, sending up to {@link #DELETE_WINDOW} commands
+	 * before waiting for their responses
+	 * 
+	 * @param ids
+	 *            book ids (16 bytes hex)
+	 * @return for every id, whether the book has been deleted (false if the
+	 *         beagle reported an error, e.g. because the book is not
+	 *         present)
+	 * @throws IOException
+	 *             if the communication fails
+	 */
+	public Map<String, Boolean> deleteBooks(Collection<String> ids)
+			throws IOException {
+		Map<String, Boolean> ret = new LinkedHashMap<String, Boolean>();
+		LinkedList<String> pending = new LinkedList<String>();
+		Iterator<String> it = ids.iterator();
+		while (it.hasNext() || !pending.isEmpty()) {
+			while (it.hasNext() && pending.size() < DELETE_WINDOW) {
+				String id = it.next();
+				write("DELETEBOOK ID=" + id);
+				pending.add(id);
+			}
+			String id = pending.removeFirst();
+			String line = read();
+			if (line == null)
+				throw new IOException("Connection closed");
+			if ("DELETEBOOKOK".equals(line)) {
+				ret.put(id, Boolean.TRUE);
+				if (catalog != null)
+					catalog.bookDeleted(id);
+			} else if ("DELETEBOOKERROR".equals(line)) {
+				ret.put(id, Boolean.FALSE);
+			} else {
+				// read the responses to the commands already sent, so that
+				// the connection stays usable
+				IOException error = new IOException("Invalid response " + line);
+				for (String sent : pending) {
+					line = read();
+					if (line == null)
+						break;
+					if ("DELETEBOOKOK".equals(line) && catalog != null)
+						catalog.bookDeleted(sent);
+				}
+				throw error;
+			}
+		}
+		return ret;
 	}
 
 	/**
@@ -105,6 +223,20 @@ public class BeagleConnector {
 		return line.substring(line.indexOf("=") + 1);
 	}
 
+	/**
+	 * Listener receiving the books present on the beagle while they are
+	 * being listed
+	 */
+	public interface BookListener {
+		/**
+		 * Called for every book as soon as it has been received
+		 * 
+		 * @param book
+		 *            book present on the beagle
+		 */
+		void bookListed(BeagleBook book);
+	}
+
 	/**
 	 * Lists the books present on the beagle
 	 * 
@@ -112,40 +244,94 @@ public class BeagleConnector {
 	 * @throws IOException
 	 */
 	public List<BeagleBook> listBooks() throws IOException {
-		List<BeagleBook> ret = new ArrayList<BeagleBook>();
+		final List<BeagleBook> ret = new ArrayList<BeagleBook>();
+		listBooks(new BookListener() {
+			public void bookListed(BeagleBook book) {
+				ret.add(book);
+			}
+		});
+		return ret;
+	}
 
+	/**
+	 * Lists the books present on the beagle, passing every book to the
+	 * listener as soon as it has been received
+	 * 
+	 * @param listener
+	 *            listener to receive the books
+	 * @throws IOException
+	 */
+	public void listBooks(BookListener listener) throws IOException {
 		write("GETBOOKS");
-		for (String line = read(); line != null && !"GETBOOKSOK".equals(line); line = read()) {
-			String[] parts = line.split(" ");
-			if (!"BOOK".equals(parts[0]))
-				throw new IOException("Invalid response " + line);
+		for (String line = read(); line != null && !"GETBOOKSOK".equals(line); line = read())
+			listener.bookListed(parseBook(line));
+	}
 
-			BeagleBook b = new BeagleBook();
-			for (int i = 1; i < parts.length; i++) {
-				String part = parts[i];
-				int index = part.indexOf("=");
-				if (index == -1)
-					throw new IOException("Invalid part " + part);
-				String key = part.substring(0, index);
-				String value = part.substring(index + 1);
-
-				if ("ID".equals(key)) {
-					b.setId(value);
-				} else if ("FIRSTPAGE".equals(key)) {
-					b.setFirstPage(Integer.parseInt(value));
-				} else if ("LASTPAGE".equals(key)) {
-					b.setLastPage(Integer.parseInt(value));
-				} else if ("CURRENTPAGE".equals(key)) {
-					b.setCurrentPage(Integer.parseInt(value));
-				} else if ("AUTHOR".equals(key)) {
-					b.setAuthorBase64(value);
-				} else if ("TITLE".equals(key)) {
-					b.setTitleBase64(value);
-				}
+	/**
+	 * Parses a line "BOOK KEY=value KEY=value ..." without splitting it into
+	 * intermediate strings
+	 */
+	private static BeagleBook parseBook(String line) throws IOException {
+		int length = line.length();
+		int end = line.indexOf(' ');
+		if (end == -1)
+			end = length;
+		if (end != 4 || !line.startsWith("BOOK"))
+			throw new IOException("Invalid response " + line);
+
+		BeagleBook b = new BeagleBook();
+		for (int start = end + 1; start < length; start = end + 1) {
+			end = line.indexOf(' ', start);
+			if (end == -1)
+				end = length;
+			if (end == start)
+				continue;
+			int index = line.indexOf('=', start);
+			if (index == -1 || index > end)
+				throw new IOException("Invalid part "
+						+ line.substring(start, end));
+			int value = index + 1;
+
+			if (isKey(line, start, index, "ID")) {
+				b.setId(line.substring(value, end));
+			} else if (isKey(line, start, index, "FIRSTPAGE")) {
+				b.setFirstPage(parseInt(line, value, end));
+			} else if (isKey(line, start, index, "LASTPAGE")) {
+				b.setLastPage(parseInt(line, value, end));
+			} else if (isKey(line, start, index, "CURRENTPAGE")) {
+				b.setCurrentPage(parseInt(line, value, end));
+			} else if (isKey(line, start, index, "AUTHOR")) {
+				b.setAuthorBase64(line.substring(value, end));
+			} else if (isKey(line, start, index, "TITLE")) {
+				b.setTitleBase64(line.substring(value, end));
 			}
-			ret.add(b);
 		}
-		return ret;
+		return b;
+	}
+
+	private static boolean isKey(String line, int start, int end, String key) {
+		return end - start == key.length()
+				&& line.regionMatches(start, key, 0, key.length());
+	}
+
+	private static int parseInt(String line, int start, int end)
+			throws IOException {
+		boolean negative = start < end && line.charAt(start) == '-';
+		int i = negative ? start + 1 : start;
+		long ret = 0;
+		for (; i < end && ret <= Integer.MAX_VALUE + 1L; i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9')
+				break;
+			ret = ret * 10 + (c - '0');
+		}
+		if (negative)
+			ret = -ret;
+		if (i != end || end == start + (negative ? 1 : 0)
+				|| ret != (int) ret)
+			throw new IOException("Invalid number "
+					+ line.substring(start, end));
+		return (int) ret;
 	}
 
 	private String read() throws IOException {
@@ -168,8 +354,82 @@ public class BeagleConnector {
 			throw new IOException("Invalid response " + line);
 	}
 
+	/**
+	 * Source of the compressed pages of a book, read by
+	 * {@link BeagleUpload}. Pages are numbered in upload order (page 0 is
+	 * the title page, page n the n-th page of the document) and produced
+	 * lazily: after {@link #start(int)}, a source prepares the following
+	 * pages in the background (in parallel where decoding is expensive)
+	 * while earlier pages are transferred.
+	 */
 	public interface PageSource {
-		byte[] getCompressedPage(int nr);
+		/**
+		 * @return file (or directory) the book is read from
+		 */
+		File getFile();
+
+		/**
+		 * @return book id (up to 16 hex digits)
+		 */
+		String getId();
+
+		/**
+		 * @return key identifying the content of the book (e.g. the hash of
+		 *         the document), used to validate the upload journal
+		 */
+		String getDocument();
+
+		String getTitle();
+
+		String getAuthor();
+
+		/**
+		 * @return number of pages of the document (without the title page)
+		 */
+		int getPageCount();
+
+		/**
+		 * Starts preparing the pages, discarding pages prepared before (to
+		 * restart at an earlier page)
+		 * 
+		 * @param first
+		 *            first upload page number to prepare
+		 */
+		void start(int first);
+
+		/**
+		 * Retrieves a compressed page, waiting until it has been prepared.
+		 * Pages have to be retrieved in ascending order.
+		 * 
+		 * @param nr
+		 *            upload page number
+		 * @return the compressed page (from position to limit), which must
+		 *         not be modified
+		 * @throws IOException
+		 *             if the page cannot be prepared, or the source has
+		 *             been closed
+		 * @throws InterruptedException
+		 *             if interrupted while waiting
+		 */
+		ByteBuffer getCompressedPage(int nr) throws IOException,
+				InterruptedException;
+
+		/**
+		 * Retrieves the timings of a page already retrieved
+		 * 
+		 * @param nr
+		 *            upload page number
+		 * @return timings measured while preparing the page; null, if not
+		 *         available
+		 */
+		PageStatistics getStatistics(int nr);
+
+		/**
+		 * Stops preparing pages and releases the resources of the source.
+		 * May be called from another thread, making a waiting
+		 * {@link #getCompressedPage(int)} fail.
+		 */
+		void close();
 	}
 
 	/**
@@ -194,6 +454,8 @@ public class BeagleConnector {
 		book.setTitle(title);
 		book.setAuthor(author);
 
+		if (catalog != null)
+			catalog.bookStarted(id, title, author);
 		write("BOOK ID=" + book.getId());
 		if (!"BOOKOK".equals(line = read()))
 			throw new IOException("Invalid response " + line);
@@ -205,12 +467,71 @@ public class BeagleConnector {
 		if (!"AUTHOROK".equals(line = read()))
 			throw new IOException("Invalid response " + line);
 		uploadingBook = true;
+		lastAcknowledgedPage = -1;
+		pendingPages.clear();
 	}
 
 	boolean uploadingBook = false;
 
 	/**
-	 * Uploads a page for the current book
+	 * Sets the number of pages that may be sent before their
+	 * acknowledgement has been received. A depth of 1 waits for every page
+	 * to be acknowledged before sending the next one.
+	 * 
+	 * @param depth
+	 *            maximum number of unacknowledged pages
+	 */
+	public void setPipelineDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Invalid pipeline depth "
+					+ depth);
+		this.pipelineDepth = depth;
+		this.effectivePipelineDepth = depth;
+	}
+
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * Retrieves the pipeline depth in effect, which drops to 1 if the beagle
+	 * rejected a page while several pages were in flight
+	 * 
+	 * @return pipeline depth in effect
+	 */
+	public int getEffectivePipelineDepth() {
+		return effectivePipelineDepth;
+	}
+
+	/**
+	 * Retrieves the number of the last page acknowledged by the beagle
+	 * 
+	 * @return page number (0-based); -1, if no page has been acknowledged in
+	 *         the current book
+	 */
+	public int getLastAcknowledgedPage() {
+		return lastAcknowledgedPage;
+	}
+
+	private int pipelineDepth = 1;
+	private int effectivePipelineDepth = 1;
+	private int lastAcknowledgedPage = -1;
+	private LinkedList<PendingPage> pendingPages = new LinkedList<PendingPage>();
+
+	private static class PendingPage {
+		final int nr;
+		final ByteBuffer compressedImage;
+
+		PendingPage(int nr, ByteBuffer compressedImage) {
+			this.nr = nr;
+			this.compressedImage = compressedImage;
+		}
+	}
+
+	/**
+	 * Uploads a page for the current book. With a pipeline depth above 1 the
+	 * page may not be acknowledged yet when this method returns (see
+	 * {@link #getLastAcknowledgedPage()}).
 	 * 
 	 * @param nr
 	 *            page number (0-based)
@@ -219,17 +540,93 @@ public class BeagleConnector {
 	 * @throws IOException
 	 */
 	public void uploadPage(int nr, byte[] compressedImage) throws IOException {
+		uploadPage(nr, ByteBuffer.wrap(compressedImage));
+	}
+
+	/**
+	 * Uploads a page for the current book directly from a buffer (e.g. a
+	 * slice of a memory mapped file), copying it to the connection chunk by
+	 * chunk. The buffer's position is not modified; with a pipeline depth
+	 * above 1, its contents must not change until the page has been
+	 * acknowledged.
+	 * 
+	 * @param nr
+	 *            page number (0-based)
+	 * @param compressedImage
+	 *            compressed image to upload as page (from position to limit)
+	 * @throws IOException
+	 */
+	public void uploadPage(int nr, ByteBuffer compressedImage)
+			throws IOException {
 		if (uploadingBook) {
-			String line;
-			write("PAGE " + nr);
-			write(compressedImage);
+			if (effectivePipelineDepth <= 1 && pendingPages.isEmpty()) {
+				String line;
+				write("PAGE " + nr, compressedImage);
+
+				if (!"PAGEOK".equals(line = read()))
+					throw new IOException("Invalid response " + line);
+				pageAcknowledged(nr);
+				return;
+			}
+
+			write("PAGE " + nr, compressedImage);
+			pendingPages.add(new PendingPage(nr, compressedImage));
+			while (pendingPages.size() >= effectivePipelineDepth)
+				acknowledgePage();
+		}
+	}
 
+	/**
+	 * Waits until all pages sent have been acknowledged
+	 * 
+	 * @throws IOException
+	 */
+	public void flushPages() throws IOException {
+		while (!pendingPages.isEmpty())
+			acknowledgePage();
+	}
+
+	private void acknowledgePage() throws IOException {
+		String line = read();
+		if (line == null)
+			throw new IOException("Connection closed");
+		PendingPage page = pendingPages.removeFirst();
+		if ("PAGEOK".equals(line)) {
+			pageAcknowledged(page.nr);
+			return;
+		}
+
+		if (!"PAGEERROR".equals(line))
+			throw new IOException("Invalid response " + line);
+
+		// fall back to waiting for every page: drain the responses of the
+		// pages still in flight, then resend the rejected page and all
+		// following ones in order
+		effectivePipelineDepth = 1;
+		List<PendingPage> resend = new ArrayList<PendingPage>();
+		resend.add(page);
+		for (PendingPage pending : pendingPages) {
+			String response = read();
+			if (!"PAGEOK".equals(response) && !"PAGEERROR".equals(response))
+				throw new IOException(response == null ? "Connection closed"
+						: "Invalid response " + response);
+			resend.add(pending);
+		}
+		pendingPages.clear();
+		for (PendingPage pending : resend) {
+			write("PAGE " + pending.nr, pending.compressedImage);
 			if (!"PAGEOK".equals(line = read()))
 				throw new IOException("Invalid response " + line);
-
+			pageAcknowledged(pending.nr);
 		}
 	}
 
+	private void pageAcknowledged(int nr) {
+		lastAcknowledgedPage = nr;
+		if (catalog != null)
+			catalog.pageUploaded(nr);
+	}
+
 	/**
 	 * Uploads a utility page
 	 * 
@@ -242,8 +639,7 @@ public class BeagleConnector {
 	public void uploadUtilityPage(int nr, byte[] compressedImage)
 			throws IOException {
 		String line;
-		write("UTILITYPAGE " + nr);
-		write(compressedImage);
+		write("UTILITYPAGE " + nr, ByteBuffer.wrap(compressedImage));
 
 		if (!"PAGEOK".equals(line = read()))
 			throw new IOException("Invalid response " + line);
@@ -257,11 +653,14 @@ public class BeagleConnector {
 	 */
 	public void endBook() throws IOException {
 		if (uploadingBook) {
+			flushPages();
 			uploadingBook = false;
 			write("ENDBOOK");
 			String line;
 			if (!"ENDBOOKOK".equals(line = read()))
 				throw new IOException("Invalid response " + line);
+			if (catalog != null)
+				catalog.bookUploaded();
 		}
 	}
 
@@ -275,18 +674,46 @@ public class BeagleConnector {
 		String line = read();
 		if (!"VIRGINOK".equals(line))
 			throw new IOException("Invalid response " + line);
+		if (catalog != null)
+			catalog.booksDeleted();
 	}
 
-	private void write(byte[] binaryData) throws IOException {
-		// System.out.println(">> " + Arrays.toString(binaryData));
-		outputStream.write(binaryData);
-		outputStream.flush();
+	private void write(String string) throws IOException {
+		write(string, (ByteBuffer) null);
 	}
 
-	private void write(String string) throws IOException {
+	/**
+	 * Writes a command line followed by binary data in chunks of
+	 * {@link #getChunkSize()} bytes, flushing only once at the end. The
+	 * binary data is copied into the reused frame buffer one chunk at a time.
+	 */
+	private void write(String string, ByteBuffer binaryData)
+			throws IOException {
 		// System.out.println(">> " + string);
-		output.write(string + "\n");
-		output.flush();
+		byte[] command = string.getBytes(ascii);
+		ByteBuffer data = binaryData == null ? null : binaryData.duplicate();
+		int size = Math.max(chunkSize, command.length + 1);
+		if (frame.length < size)
+			frame = new byte[size];
+		System.arraycopy(command, 0, frame, 0, command.length);
+		frame[command.length] = '\n';
+		int length = command.length + 1;
+
+		int pos = 0;
+		while (pos < length || data != null && data.hasRemaining()) {
+			if (length - pos < chunkSize && data != null && data.hasRemaining()) {
+				System.arraycopy(frame, pos, frame, 0, length - pos);
+				length -= pos;
+				pos = 0;
+				int count = Math.min(chunkSize - length, data.remaining());
+				data.get(frame, length, count);
+				length += count;
+			}
+			int count = Math.min(chunkSize, length - pos);
+			outputStream.write(frame, pos, count);
+			pos += count;
+		}
+		outputStream.flush();
 	}
 
 }
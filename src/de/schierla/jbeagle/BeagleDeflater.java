@@ -0,0 +1,97 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+
+/**
+ * Deflate implementation used to compress beagle pages. Pages are gzip
+ * streams of the packed 4 bit page buffer.
+ * 
+ * Implementations keep their compression state between pages, so each
+ * thread has to use its own instance.
+ */
+public interface BeagleDeflater {
+
+	/** Default compression strategy */
+	int DEFAULT_STRATEGY = 0;
+
+	/** Strategy for data with many small distinct values */
+	int FILTERED = 1;
+
+	/** Strategy using huffman coding only (no string matching) */
+	int HUFFMAN_ONLY = 2;
+
+	/** Default compression level */
+	int DEFAULT_COMPRESSION = -1;
+
+	/**
+	 * Compresses a page buffer
+	 * 
+	 * @param raw
+	 *            buffer to compress
+	 * @param length
+	 *            number of bytes to compress
+	 * @param target
+	 *            buffer to write the gzip stream to
+	 * @param offset
+	 *            offset in the target buffer
+	 * @return length of the gzip stream
+	 * @throws IOException
+	 *             if the stream does not fit into the target buffer
+	 */
+	int compress(byte[] raw, int length, byte[] target, int offset)
+			throws IOException;
+
+	/**
+	 * Compresses a part of a page buffer into raw deflate data (without gzip
+	 * header and trailer), starting a new stream. Unless it is the last
+	 * part, the data ends with a full flush, so it references no other data
+	 * and can be followed by the deflate data of the next part.
+	 * 
+	 * @param raw
+	 *            buffer to compress
+	 * @param offset
+	 *            offset of the part in the buffer
+	 * @param length
+	 *            length of the part
+	 * @param last
+	 *            whether this is the last part of the page
+	 * @param target
+	 *            buffer to write the deflate data to
+	 * @param targetOffset
+	 *            offset in the target buffer
+	 * @return length of the deflate data
+	 * @throws IOException
+	 *             if the data does not fit into the target buffer
+	 */
+	int compressRaw(byte[] raw, int offset, int length, boolean last,
+			byte[] target, int targetOffset) throws IOException;
+
+	/**
+	 * @return implementation and settings, identifying the produced output
+	 *         (e.g. in cache keys, must be a valid part of a file name)
+	 */
+	String getParameters();
+
+	/**
+	 * Releases the resources of the implementation (no more pages can be
+	 * compressed afterwards)
+	 */
+	void close();
+}
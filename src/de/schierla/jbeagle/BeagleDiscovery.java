@@ -0,0 +1,306 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import javax.bluetooth.DiscoveryAgent;
+import javax.bluetooth.LocalDevice;
+import javax.bluetooth.RemoteDevice;
+
+import de.schierla.jbeagle.transport.RfcommTransport;
+
+/**
+ * Searches for a txtr beagle. The address of the last beagle found is
+ * remembered (in the user preferences) and tried first; otherwise all
+ * paired devices are probed concurrently, using the first beagle that
+ * accepts the connection.
+ */
+public class BeagleDiscovery {
+
+	/** Default time to wait for the probes of one search (ms) */
+	public static final long DEFAULT_PROBE_TIMEOUT = 10000;
+
+	/** Delay before the first retry of {@link #waitForBeagle(RetryListener)} (ms) */
+	public static final long INITIAL_RETRY_DELAY = 1000;
+
+	/** Maximum delay between retries of {@link #waitForBeagle(RetryListener)} (ms) */
+	public static final long MAX_RETRY_DELAY = 15000;
+
+	private static final String LAST_ADDRESS = "lastAddress";
+
+	/**
+	 * Listener informed when no beagle has been found
+	 */
+	public interface RetryListener {
+		/**
+		 * Called before waiting for the next search
+		 * 
+		 * @param attempt
+		 *            number of failed searches
+		 * @param delay
+		 *            time until the next search (ms)
+		 */
+		void retrying(int attempt, long delay);
+	}
+
+	private final Preferences preferences;
+	private final Map<String, RemoteDevice> devices = new HashMap<String, RemoteDevice>();
+	private long probeTimeout = DEFAULT_PROBE_TIMEOUT;
+
+	/**
+	 * Creates a discovery remembering the last beagle in the user
+	 * preferences of jBeagle
+	 */
+	public BeagleDiscovery() {
+		this(Preferences.userNodeForPackage(BeagleDiscovery.class));
+	}
+
+	/**
+	 * @param preferences
+	 *            preferences to remember the last beagle in (may be null)
+	 */
+	public BeagleDiscovery(Preferences preferences) {
+		this.preferences = preferences;
+	}
+
+	/**
+	 * Sets the time to wait for each step of a search: first for the last
+	 * beagle, then for all other candidates together
+	 * 
+	 * @param probeTimeout
+	 *            timeout (ms)
+	 */
+	public void setProbeTimeout(long probeTimeout) {
+		this.probeTimeout = probeTimeout;
+	}
+
+	/**
+	 * @return the bluetooth address of the last beagle found; null, if
+	 *         unknown
+	 */
+	public String getLastAddress() {
+		return preferences == null ? null : preferences.get(LAST_ADDRESS,
+				null);
+	}
+
+	/**
+	 * Tries to connect to a txtr beagle
+	 * 
+	 * @return the beagle, if found; null, if not found
+	 * @throws IOException
+	 *             if bluetooth is not available
+	 */
+	public synchronized BeagleConnector connect() throws IOException {
+		List<String> candidates = new ArrayList<String>();
+		String last = getLastAddress();
+		if (last != null) {
+			candidates.add(last);
+			Probe probe = new Probe(candidates, true);
+			if (probe.await())
+				return probe.getResult();
+			candidates.clear();
+		}
+		for (String address : findCandidates())
+			if (!address.equals(last))
+				candidates.add(address);
+		if (candidates.isEmpty())
+			return null;
+		Probe probe = new Probe(candidates, false);
+		if (probe.await()) {
+			remember(probe.getAddress());
+			return probe.getResult();
+		}
+		return null;
+	}
+
+	/**
+	 * Searches until a beagle has been found, waiting between the searches
+	 * (starting with {@link #INITIAL_RETRY_DELAY}, doubling up to
+	 * {@link #MAX_RETRY_DELAY})
+	 * 
+	 * @param listener
+	 *            listener informed about failed searches (may be null)
+	 * @return the beagle
+	 * @throws IOException
+	 *             if bluetooth is not available
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public BeagleConnector waitForBeagle(RetryListener listener)
+			throws IOException, InterruptedException {
+		return waitForBeagle(listener, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Searches until a beagle has been found or the given number of
+	 * searches failed, waiting between the searches like
+	 * {@link #waitForBeagle(RetryListener)}
+	 * 
+	 * @param listener
+	 *            listener informed about failed searches (may be null)
+	 * @param attempts
+	 *            maximum number of searches
+	 * @return the beagle; null, if not found
+	 * @throws IOException
+	 *             if bluetooth is not available
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public BeagleConnector waitForBeagle(RetryListener listener, int attempts)
+			throws IOException, InterruptedException {
+		long delay = INITIAL_RETRY_DELAY;
+		for (int attempt = 1;; attempt++) {
+			BeagleConnector ret = connect();
+			if (ret != null || attempt >= attempts)
+				return ret;
+			if (listener != null)
+				listener.retrying(attempt, delay);
+			Thread.sleep(delay);
+			delay = Math.min(2 * delay, MAX_RETRY_DELAY);
+		}
+	}
+
+	/**
+	 * Lists the addresses of the devices that may be a beagle
+	 * 
+	 * @return bluetooth addresses
+	 * @throws IOException
+	 *             if bluetooth is not available
+	 */
+	protected List<String> findCandidates() throws IOException {
+		List<String> ret = new ArrayList<String>();
+		devices.clear();
+		DiscoveryAgent da = LocalDevice.getLocalDevice().getDiscoveryAgent();
+		RemoteDevice[] known = da.retrieveDevices(DiscoveryAgent.PREKNOWN);
+		if (known != null) {
+			for (RemoteDevice device : known) {
+				devices.put(device.getBluetoothAddress(), device);
+				ret.add(device.getBluetoothAddress());
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Connects to a device if it is a beagle (called concurrently for all
+	 * candidates)
+	 * 
+	 * @param address
+	 *            bluetooth address
+	 * @param known
+	 *            whether the device is known to be a beagle
+	 * @return the beagle; null, if the device is no beagle
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	protected BeagleConnector open(String address, boolean known)
+			throws IOException {
+		if (!known) {
+			RemoteDevice device = devices.get(address);
+			if (device == null)
+				return null;
+			String name = device.getFriendlyName(false);
+			if (!"Beagle".equals(name) && !"txtr beagle".equals(name))
+				return null;
+		}
+		return new BeagleConnector(RfcommTransport.connect(address));
+	}
+
+	private void remember(String address) {
+		if (preferences == null)
+			return;
+		preferences.put(LAST_ADDRESS, address);
+		try {
+			preferences.flush();
+		} catch (BackingStoreException e) {
+		}
+	}
+
+	/**
+	 * Concurrent probe of several candidates, keeping the first beagle found
+	 * and closing connections established after the probe has finished
+	 */
+	private class Probe {
+		private int running;
+		private boolean finished;
+		private BeagleConnector result;
+		private String address;
+
+		Probe(List<String> candidates, final boolean known) {
+			running = candidates.size();
+			for (final String candidate : candidates) {
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						BeagleConnector beagle = null;
+						try {
+							beagle = open(candidate, known);
+						} catch (IOException e) {
+						} catch (RuntimeException e) {
+						}
+						offer(candidate, beagle);
+					}
+				}, "jBeagle probe " + candidate);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		synchronized void offer(String candidate, BeagleConnector beagle) {
+			running--;
+			if (beagle != null && (finished || result != null)) {
+				try {
+					beagle.close();
+				} catch (IOException e) {
+				}
+			} else if (beagle != null) {
+				result = beagle;
+				address = candidate;
+			}
+			notifyAll();
+		}
+
+		synchronized boolean await() {
+			long deadline = System.currentTimeMillis() + probeTimeout;
+			try {
+				for (long remaining = probeTimeout; result == null
+						&& running > 0 && remaining > 0; remaining = deadline
+						- System.currentTimeMillis())
+					wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finished = true;
+			return result != null;
+		}
+
+		synchronized BeagleConnector getResult() {
+			return result;
+		}
+
+		synchronized String getAddress() {
+			return address;
+		}
+	}
+}
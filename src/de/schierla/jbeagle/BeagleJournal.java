@@ -0,0 +1,157 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Journal of the pages acknowledged by the beagle for books whose upload
+ * has not been completed, so that an interrupted upload can be continued
+ * at the exact next page. Every book has a small file holding the content
+ * hash of its document followed by the acknowledged page numbers, appended
+ * as they arrive. Like the page cache, the journal is best effort: if it
+ * cannot be written, uploads continue without it.
+ */
+public class BeagleJournal {
+
+	private static final String SUFFIX = ".journal";
+
+	private final File directory;
+	private final Map<String, String> started = new HashMap<String, String>();
+
+	/**
+	 * Opens (or creates) a journal in the given directory
+	 * 
+	 * @param directory
+	 *            directory to store the journal files in
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public BeagleJournal(File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create journal directory "
+					+ directory);
+	}
+
+	/**
+	 * Opens the journal in the user's home directory
+	 * 
+	 * @return the journal; null, if it cannot be used
+	 */
+	public static BeagleJournal getDefault() {
+		try {
+			return new BeagleJournal(new File(System.getProperty("user.home"),
+					".jbeagle" + File.separator + "journal"));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves the last page acknowledged for a book
+	 * 
+	 * @param id
+	 *            book id
+	 * @param document
+	 *            content hash of the document (see
+	 *            {@link BeaglePageCache#hash(File)})
+	 * @return upload page number; -1, if unknown or recorded for another
+	 *         document
+	 */
+	public synchronized int getAcknowledgedPage(String id, String document) {
+		File file = getFile(id);
+		if (!file.isFile())
+			return -1;
+		int ret = -1;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (!document.equals(in.readUTF()))
+					return -1;
+				while (true)
+					ret = Math.max(ret, in.readInt());
+			} finally {
+				in.close();
+			}
+		} catch (EOFException e) {
+			// a page number cut off by a crash is ignored
+			return ret;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Records that the beagle acknowledged a page. The first page recorded
+	 * for a book by this journal replaces an existing journal file.
+	 * 
+	 * @param id
+	 *            book id
+	 * @param document
+	 *            content hash of the document
+	 * @param nr
+	 *            upload page number
+	 */
+	public synchronized void pageAcknowledged(String id, String document,
+			int nr) {
+		File file = getFile(id);
+		try {
+			boolean created = !document.equals(started.get(id));
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(
+					file, !created));
+			try {
+				if (created)
+					out.writeUTF(document);
+				out.writeInt(nr);
+			} finally {
+				out.close();
+			}
+			started.put(id, document);
+		} catch (IOException e) {
+			started.remove(id);
+			file.delete();
+		}
+	}
+
+	/**
+	 * Removes the journal of a book (e.g. after its upload has been
+	 * completed)
+	 * 
+	 * @param id
+	 *            book id
+	 */
+	public synchronized void remove(String id) {
+		started.remove(id);
+		getFile(id).delete();
+	}
+
+	private File getFile(String id) {
+		return new File(directory, id + SUFFIX);
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of compressed beagle pages, evicting least recently used pages
+ * when exceeding its size limit
+ */
+public class BeaglePageCache {
+
+	/** Default size limit of the cache (256 MB) */
+	public static final long DEFAULT_LIMIT = 256L * 1024 * 1024;
+
+	private static final String SUFFIX = ".page";
+
+	private final File directory;
+	private final long limit;
+	private final Map<String, Long> entries = new LinkedHashMap<String, Long>(
+			16, 0.75f, true);
+	private long size;
+
+	/**
+	 * Opens (or creates) a page cache in the given directory
+	 *
+	 * @param directory
+	 *            directory to store the pages in
+	 * @param limit
+	 *            maximum size of all cached pages (in bytes)
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public BeaglePageCache(File directory, long limit) throws IOException {
+		this.directory = directory;
+		this.limit = limit;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create cache directory "
+					+ directory);
+
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Could not read cache directory "
+					+ directory);
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.endsWith(SUFFIX)) {
+				entries.put(name.substring(0, name.length() - SUFFIX.length()),
+						file.length());
+				size += file.length();
+			}
+		}
+	}
+
+	/**
+	 * Opens the page cache in the user's home directory
+	 *
+	 * @return the page cache; null, if it cannot be used
+	 */
+	public static BeaglePageCache getDefault() {
+		try {
+			return new BeaglePageCache(new File(System.getProperty("user.home"),
+					".jbeagle" + File.separator + "cache"), DEFAULT_LIMIT);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the cache key for a page
+	 *
+	 * @param document
+	 *            content hash of the document (see {@link #hash(File)})
+	 * @param nr
+	 *            upload page number
+	 * @param parameters
+	 *            render parameters (must be a valid part of a file name)
+	 * @return cache key
+	 */
+	public static String key(String document, int nr, String parameters) {
+		return document + "-" + nr + "-" + parameters;
+	}
+
+	/**
+	 * Computes the content hash of a file
+	 *
+	 * @param file
+	 *            file to hash
+	 * @return SHA-1 hash of the file contents (hex)
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest = createDigest();
+		update(digest, file);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Computes the content hash of several files (e.g. the images of a book)
+	 *
+	 * @param files
+	 *            files to hash
+	 * @return SHA-1 hash of the names, lengths and contents of the files
+	 *         (hex), so renaming, reordering or splitting files changes it
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public static String hash(List<File> files) throws IOException {
+		MessageDigest digest = createDigest();
+		for (File file : files) {
+			digest.update(file.getName().getBytes("UTF-8"));
+			digest.update((byte) 0);
+			long length = file.length();
+			for (int shift = 56; shift >= 0; shift -= 8)
+				digest.update((byte) (length >>> shift));
+			update(digest, file);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, File file)
+			throws IOException {
+		byte[] buffer = new byte[65536];
+		InputStream in = new FileInputStream(file);
+		try {
+			for (int len = in.read(buffer); len != -1; len = in.read(buffer))
+				digest.update(buffer, 0, len);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String toHex(byte[] hash) {
+		StringBuilder ret = new StringBuilder();
+		for (byte b : hash)
+			ret.append(String.format("%02x", b & 0xff));
+		return ret.toString();
+	}
+
+	/**
+	 * Retrieves a page from the cache
+	 *
+	 * @param key
+	 *            cache key
+	 * @return the compressed page; null, if not cached
+	 */
+	public synchronized byte[] get(String key) {
+		Long length = entries.get(key);
+		if (length == null)
+			return null;
+		File file = getFile(key);
+		try {
+			byte[] ret = new byte[length.intValue()];
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				in.readFully(ret);
+			} finally {
+				in.close();
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return ret;
+		} catch (IOException e) {
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a page in the cache, evicting the least recently used pages if
+	 * the size limit is exceeded
+	 *
+	 * @param key
+	 *            cache key
+	 * @param page
+	 *            compressed page
+	 */
+	public synchronized void put(String key, byte[] page) {
+		if (page.length > limit)
+			return;
+		remove(key);
+		File temp = new File(directory, key + ".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(page);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(getFile(key))) {
+				temp.delete();
+				return;
+			}
+		} catch (IOException e) {
+			temp.delete();
+			return;
+		}
+		entries.put(key, (long) page.length);
+		size += page.length;
+
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > limit && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			getFile(eldest.getKey()).delete();
+			size -= eldest.getValue();
+			it.remove();
+		}
+	}
+
+	private void remove(String key) {
+		Long length = entries.remove(key);
+		if (length != null) {
+			getFile(key).delete();
+			size -= length;
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+}
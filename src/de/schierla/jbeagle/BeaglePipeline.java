@@ -0,0 +1,276 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded pipeline stage producing numbered items on several worker threads
+ * and handing them out in ascending order by {@link #take(int)}. Workers
+ * run ahead of the consumer as long as the items buffered fit into a byte
+ * budget (and a maximum item count), so a slow consumer buffers as much as
+ * allowed while a fast one is never starved.
+ * 
+ * The first error of a worker ends the stage: waiting consumers are woken
+ * up immediately and receive the error, the other workers stop at their
+ * next item. {@link #cancel()} stops the stage from any thread.
+ * 
+ * Subclasses create the per-thread state of the workers in
+ * {@link #createWorker()} and have to call {@link #start()} at the end of
+ * their constructor.
+ * 
+ * @param <T>
+ *            type of the items
+ */
+public abstract class BeaglePipeline<T> {
+
+	/**
+	 * Producer of items owned by one worker thread
+	 * 
+	 * @param <T>
+	 *            type of the items
+	 */
+	public interface Worker<T> {
+		/**
+		 * Produces an item
+		 * 
+		 * @param nr
+		 *            item number
+		 * @return the item
+		 * @throws IOException
+		 *             if the item cannot be produced (ends the stage)
+		 * @throws InterruptedException
+		 *             if the stage has been cancelled
+		 */
+		T produce(int nr) throws IOException, InterruptedException;
+
+		/**
+		 * Releases the resources of the worker, called by its thread when
+		 * it stops
+		 */
+		void close();
+	}
+
+	private final String name;
+	private final int end;
+	private final int window;
+	private final long budget;
+	private final int threads;
+	private final Map<Integer, T> finished = new HashMap<Integer, T>();
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private int next;
+	private int consumed;
+	private long buffered;
+	private IOException failure;
+	private boolean cancelled;
+
+	/**
+	 * @param name
+	 *            name of the worker threads
+	 * @param start
+	 *            first item number to produce
+	 * @param end
+	 *            item number to stop at (exclusive)
+	 * @param threads
+	 *            number of worker threads
+	 * @param window
+	 *            maximum number of items produced ahead of the consumer
+	 * @param budget
+	 *            maximum size of the items buffered (in bytes, see
+	 *            {@link #getSize(Object)}); a worker may always produce the
+	 *            next item the consumer is waiting for, and items being
+	 *            produced are not counted, so the budget may be exceeded by
+	 *            one item per worker
+	 */
+	protected BeaglePipeline(String name, int start, int end, int threads,
+			int window, long budget) {
+		this.name = name;
+		this.next = start;
+		this.consumed = start;
+		this.end = end;
+		this.threads = Math.max(1, Math.min(threads, end - start));
+		this.window = Math.max(1, window);
+		this.budget = budget;
+	}
+
+	/**
+	 * Creates the state of a worker thread, called by the thread itself
+	 * 
+	 * @return the worker
+	 * @throws IOException
+	 *             if the worker cannot be created (ends the stage)
+	 */
+	protected abstract Worker<T> createWorker() throws IOException;
+
+	/**
+	 * @param item
+	 *            a produced item
+	 * @return the size of the item counted against the byte budget
+	 */
+	protected abstract long getSize(T item);
+
+	/**
+	 * Starts the worker threads
+	 */
+	protected final void start() {
+		synchronized (this) {
+			for (int i = 0; i < threads; i++) {
+				Thread worker = new Thread(new Runnable() {
+					public void run() {
+						work();
+					}
+				}, name + " " + i);
+				worker.setDaemon(true);
+				workers.add(worker);
+			}
+		}
+		for (Thread worker : workers)
+			worker.start();
+	}
+
+	/**
+	 * Retrieves an item, waiting until it has been produced. Items have to
+	 * be taken in ascending order.
+	 * 
+	 * @param nr
+	 *            item number
+	 * @return the item
+	 * @throws IOException
+	 *             if a worker failed, or the stage has been cancelled
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized T take(int nr) throws IOException,
+			InterruptedException {
+		while (!finished.containsKey(nr)) {
+			if (failure != null)
+				throw failure;
+			if (cancelled)
+				throw new IOException("Pipeline has been cancelled");
+			wait();
+		}
+		consumed = nr + 1;
+		notifyAll();
+		T item = finished.remove(nr);
+		buffered -= getSize(item);
+		return item;
+	}
+
+	/**
+	 * Stops all workers (interrupting them) and discards the items not yet
+	 * taken. Consumers waiting in {@link #take(int)} fail immediately.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			if (cancelled)
+				return;
+			cancelled = true;
+			finished.clear();
+			buffered = 0;
+			notifyAll();
+		}
+		for (Thread worker : workers)
+			if (worker != Thread.currentThread())
+				worker.interrupt();
+	}
+
+	/**
+	 * @return true, if {@link #cancel()} has been called
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the error that stopped the workers; null, if none occurred
+	 */
+	public synchronized IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return number of the next item to take
+	 */
+	public synchronized int getPosition() {
+		return consumed;
+	}
+
+	/**
+	 * @return number of items produced but not yet taken
+	 */
+	public synchronized int getBufferedCount() {
+		return finished.size();
+	}
+
+	/**
+	 * @return size of the items produced but not yet taken (in bytes)
+	 */
+	public synchronized long getBufferedSize() {
+		return buffered;
+	}
+
+	private synchronized int claim() throws InterruptedException {
+		while (!cancelled && failure == null && next < end
+				&& (next - consumed >= window || next > consumed
+						&& buffered >= budget))
+			wait();
+		if (cancelled || failure != null || next >= end)
+			return -1;
+		return next++;
+	}
+
+	private synchronized void publish(int nr, T item) {
+		if (!cancelled) {
+			finished.put(nr, item);
+			buffered += getSize(item);
+		}
+		notifyAll();
+	}
+
+	private synchronized void fail(IOException e) {
+		if (failure == null && !cancelled)
+			failure = e;
+		notifyAll();
+	}
+
+	private void work() {
+		Worker<T> worker = null;
+		try {
+			worker = createWorker();
+			for (int nr = claim(); nr != -1; nr = claim())
+				publish(nr, worker.produce(nr));
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+		} catch (InterruptedException e) {
+			fail(new IOException(e));
+		} catch (Error e) {
+			// e.g. OutOfMemoryError, let the consumer fail instead of waiting
+			fail(new IOException(e));
+			throw e;
+		} finally {
+			if (worker != null)
+				worker.close();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Converts RGB pixels into the gray levels of the beagle display (4 bits per
+ * pixel, two pixels per byte)
+ */
+public final class BeagleQuantizer {
+
+	/** luma in units of 1/10000 (Rec. 709 weights) */
+	private static final int[] RED = new int[256];
+	private static final int[] GREEN = new int[256];
+	private static final int[] BLUE = new int[256];
+
+	/** luma width of one of the 8 gray levels (32 * 10000) */
+	private static final int STEP = 320000;
+
+	private static int[] grayLevels;
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			RED[i] = 2126 * i;
+			GREEN[i] = 7152 * i;
+			BLUE[i] = 722 * i;
+		}
+	}
+
+	private BeagleQuantizer() {
+	}
+
+	/**
+	 * Determines the beagle gray level of a pixel
+	 *
+	 * @param r
+	 *            red (0-255)
+	 * @param g
+	 *            green (0-255)
+	 * @param b
+	 *            blue (0-255)
+	 * @return gray level (0-15)
+	 */
+	public static int level(int r, int g, int b) {
+		int luma = RED[r] + GREEN[g] + BLUE[b];
+		int step = luma / STEP;
+		if (luma == step * STEP)
+			return boundaryLevel(r, g, b);
+		return step << 1;
+	}
+
+	/**
+	 * Determines the beagle gray level of a pixel
+	 *
+	 * @param rgb
+	 *            pixel in the default RGB color model
+	 * @return gray level (0-15)
+	 */
+	public static int level(int rgb) {
+		return level((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+	}
+
+	/**
+	 * Pixels exactly on a level boundary are rounded as by the original
+	 * floating point conversion, so that the output stays byte-identical
+	 */
+	private static int boundaryLevel(int r, int g, int b) {
+		int gray = (int) (r * 0.2126 + g * 0.7152 + b * 0.0722);
+		return (gray & 0xE0) / 0x10;
+	}
+
+	/**
+	 * Packs interleaved byte samples (TYPE_4BYTE_ABGR, TYPE_3BYTE_BGR)
+	 */
+	static void pack(byte[] data, int offset, int pixelStride,
+			int scanlineStride, int r, int g, int b, byte[] raw) {
+		int i = 0;
+		for (int y = 0; y < 800; y++) {
+			int p = offset + y * scanlineStride;
+			for (int x = 0; x < 600; x += 2) {
+				int gray1 = level(data[p + r] & 0xff, data[p + g] & 0xff,
+						data[p + b] & 0xff);
+				p += pixelStride;
+				int gray2 = level(data[p + r] & 0xff, data[p + g] & 0xff,
+						data[p + b] & 0xff);
+				p += pixelStride;
+				raw[i++] = (byte) (gray2 | gray1 << 4);
+			}
+		}
+	}
+
+	/**
+	 * Packs gray byte samples (TYPE_BYTE_GRAY)
+	 */
+	static void pack(byte[] data, int offset, int pixelStride,
+			int scanlineStride, byte[] raw) {
+		int[] levels = getGrayLevels();
+		int i = 0;
+		for (int y = 0; y < 800; y++) {
+			int p = offset + y * scanlineStride;
+			for (int x = 0; x < 600; x += 2) {
+				int gray1 = levels[data[p] & 0xff];
+				p += pixelStride;
+				int gray2 = levels[data[p] & 0xff];
+				p += pixelStride;
+				raw[i++] = (byte) (gray2 | gray1 << 4);
+			}
+		}
+	}
+
+	/**
+	 * Packs one row of int pixels in the default RGB color model
+	 */
+	static void packRow(int[] data, int offset, int y, byte[] raw) {
+		int i = y * 300;
+		for (int x = offset; x < offset + 600; x += 2) {
+			int rgb1 = data[x], rgb2 = data[x + 1];
+			int gray1 = level((rgb1 >> 16) & 0xff, (rgb1 >> 8) & 0xff,
+					rgb1 & 0xff);
+			int gray2 = level((rgb2 >> 16) & 0xff, (rgb2 >> 8) & 0xff,
+					rgb2 & 0xff);
+			raw[i++] = (byte) (gray2 | gray1 << 4);
+		}
+	}
+
+	/**
+	 * Gray values of TYPE_BYTE_GRAY images are linear, so they are mapped to
+	 * the same sRGB values getRGB would return before quantization
+	 */
+	private static synchronized int[] getGrayLevels() {
+		if (grayLevels == null) {
+			BufferedImage gray = new BufferedImage(256, 1,
+					BufferedImage.TYPE_BYTE_GRAY);
+			for (int i = 0; i < 256; i++)
+				gray.getRaster().setSample(i, 0, 0, i);
+			int[] rgb = gray.getRGB(0, 0, 256, 1, null, 0, 256);
+			int[] levels = new int[256];
+			for (int i = 0; i < 256; i++)
+				levels[i] = level(rgb[i]);
+			grayLevels = levels;
+		}
+		return grayLevels;
+	}
+}
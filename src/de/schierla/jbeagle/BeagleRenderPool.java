@@ -0,0 +1,254 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jpedal.PdfDecoder;
+import org.jpedal.exception.PdfException;
+
+/**
+ * Pipeline of worker threads rendering and compressing the pages of a PDF
+ * document for the beagle. Every worker opens its own {@link PdfDecoder} and
+ * {@link BeagleRenderer}, pages are handed out in upload order by
+ * {@link #take(int)}, their timings by {@link #getStatistics(int)}. If a
+ * {@link BeaglePageCache} is given, cached pages are used instead of
+ * rendering them, and rendered pages are added to the cache.
+ *
+ * Page numbers are upload page numbers: page 0 is the title page, page n
+ * (n &gt; 0) is page n - 1 of the document.
+ */
+public class BeagleRenderPool extends BeaglePipeline<byte[]> {
+
+	private final File file;
+	private final String author;
+	private final String title;
+	private final BeaglePageCache cache;
+	private final String document;
+	private final BeagleCompressor.PageMemo memo = new BeagleCompressor.PageMemo(
+			64);
+	private final Map<Integer, PageStatistics> statistics = new HashMap<Integer, PageStatistics>();
+
+	/**
+	 * Starts rendering the given pages using one worker per available core
+	 *
+	 * @param file
+	 *            PDF document to render
+	 * @param author
+	 *            author shown on the title page
+	 * @param title
+	 *            title shown on the title page
+	 * @param start
+	 *            first upload page number to render
+	 * @param end
+	 *            upload page number to stop at (exclusive)
+	 */
+	public BeagleRenderPool(File file, String author, String title,
+			int start, int end) {
+		this(file, author, title, start, end, Runtime.getRuntime()
+				.availableProcessors(), null, null);
+	}
+
+	/**
+	 * Starts rendering the given pages
+	 *
+	 * @param file
+	 *            PDF document to render
+	 * @param author
+	 *            author shown on the title page
+	 * @param title
+	 *            title shown on the title page
+	 * @param start
+	 *            first upload page number to render
+	 * @param end
+	 *            upload page number to stop at (exclusive)
+	 * @param threads
+	 *            number of worker threads
+	 * @param cache
+	 *            page cache to use (may be null)
+	 * @param document
+	 *            content hash of the document (see
+	 *            {@link BeaglePageCache#hash(File)}, may be null if no cache
+	 *            is used)
+	 */
+	public BeagleRenderPool(File file, String author, String title,
+			int start, int end, int threads, BeaglePageCache cache,
+			String document) {
+		this(file, author, title, start, end, threads, cache, document,
+				Long.MAX_VALUE);
+	}
+
+	/**
+	 * Starts rendering the given pages, buffering as many pages ahead of
+	 * {@link #take(int)} as fit into the given memory limit (instead of two
+	 * pages per worker)
+	 * 
+	 * @param file
+	 *            PDF document to render
+	 * @param author
+	 *            author shown on the title page
+	 * @param title
+	 *            title shown on the title page
+	 * @param start
+	 *            first upload page number to render
+	 * @param end
+	 *            upload page number to stop at (exclusive)
+	 * @param threads
+	 *            number of worker threads
+	 * @param cache
+	 *            page cache to use (may be null)
+	 * @param document
+	 *            content hash of the document (may be null if no cache is
+	 *            used)
+	 * @param memoryLimit
+	 *            maximum size of the compressed pages buffered (in bytes,
+	 *            {@link Long#MAX_VALUE} for two pages per worker)
+	 */
+	public BeagleRenderPool(File file, String author, String title,
+			int start, int end, int threads, BeaglePageCache cache,
+			String document, long memoryLimit) {
+		super("jBeagle renderer", start, end, threads,
+				memoryLimit == Long.MAX_VALUE ? 2 * Math.max(1,
+						Math.min(threads, end - start)) : end - start,
+				memoryLimit);
+		this.file = file;
+		this.cache = document == null ? null : cache;
+		this.document = document;
+		this.author = author;
+		this.title = title;
+		start();
+	}
+
+	/**
+	 * Retrieves a compressed page, waiting until it has been rendered. Pages
+	 * have to be taken in ascending order.
+	 *
+	 * @param nr
+	 *            upload page number
+	 * @return compressed page
+	 * @throws IOException
+	 *             if rendering failed, or the pool has been closed
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Override
+	public synchronized byte[] take(int nr) throws IOException,
+			InterruptedException {
+		long start = System.nanoTime();
+		byte[] page = super.take(nr);
+		PageStatistics stats = statistics.get(nr);
+		stats.queueTime = System.nanoTime() - start;
+		stats.queued = getBufferedCount() + 1;
+		return page;
+	}
+
+	/**
+	 * Retrieves the statistics of a page already taken
+	 * 
+	 * @param nr
+	 *            upload page number
+	 * @return timings measured while rendering and taking the page; null, if
+	 *         not available
+	 */
+	public synchronized PageStatistics getStatistics(int nr) {
+		if (nr >= getPosition())
+			return null;
+		return statistics.remove(nr);
+	}
+
+	/**
+	 * Stops all workers and discards pages not yet taken
+	 */
+	public void close() {
+		cancel();
+		synchronized (this) {
+			statistics.clear();
+		}
+	}
+
+	@Override
+	protected long getSize(byte[] page) {
+		return page.length;
+	}
+
+	@Override
+	protected Worker<byte[]> createWorker() {
+		final PdfDecoder decoder = new PdfDecoder();
+		final BeagleCompressor compressor = new BeagleCompressor();
+		compressor.setMemo(memo);
+		return new Worker<byte[]>() {
+			private BeagleRenderer renderer;
+
+			public byte[] produce(int nr) throws IOException {
+				PageStatistics stats = new PageStatistics(nr);
+				byte[] page = cache == null ? null : cache
+						.get(getCacheKey(nr, compressor));
+				if (page == null) {
+					long start = System.nanoTime();
+					try {
+						if (renderer == null) {
+							decoder.openPdfFile(file.getAbsolutePath());
+							renderer = new BeagleRenderer(decoder, author,
+									title);
+						}
+						BufferedImage image = nr == 0 ? renderer.render(0,
+								true) : renderer.render(nr - 1, false);
+						stats.renderTime = System.nanoTime() - start;
+						page = compressor.encode(image);
+					} catch (PdfException e) {
+						throw new IOException(e);
+					}
+					stats.packTime = compressor.getPackTime();
+					stats.deflateTime = compressor.getDeflateTime();
+					stats.reused = compressor.isContentReused();
+					if (cache != null)
+						cache.put(getCacheKey(nr, compressor), page);
+				} else {
+					stats.cached = true;
+				}
+				stats.size = page.length;
+				synchronized (BeagleRenderPool.this) {
+					statistics.put(nr, stats);
+				}
+				return page;
+			}
+
+			public void close() {
+				if (renderer != null)
+					decoder.closePdfFile();
+				compressor.close();
+			}
+		};
+	}
+
+	/**
+	 * Creates the cache key of a page, depending on the settings of the
+	 * compressor, so that pages encoded differently are never mixed
+	 */
+	private String getCacheKey(int nr, BeagleCompressor compressor) {
+		String parameters = "600x800-" + compressor.getParameters();
+		if (nr == 0)
+			parameters += "-title"
+					+ Integer.toHexString((author + "\n" + title).hashCode());
+		return BeaglePageCache.key(document, nr, parameters);
+	}
+}
@@ -27,6 +27,7 @@ import java.util.List;
 
 import org.jpedal.PdfDecoder;
 import org.jpedal.exception.PdfException;
+import org.jpedal.objects.PdfPageData;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -38,6 +39,7 @@ public class BeagleRenderer {
 	private String title;
 	private int pages;
 	private List<Integer> bookmarks;
+	private float[] scales;
 
 	public BeagleRenderer(PdfDecoder decoder, String author, String title) {
 		this.decoder = decoder;
@@ -45,6 +47,7 @@ public class BeagleRenderer {
 		this.title = title;
 		this.pages = decoder.getPageCount();
 		this.bookmarks = extractBookmarks(decoder);
+		this.scales = new float[pages];
 	}
 
 	public int getPageCount() {
@@ -59,26 +62,89 @@ public class BeagleRenderer {
 	 * @param titelPage
 	 *            draw the given page as title page
 	 * @return Image of the page
+	 * @throws PdfException
+	 *             if the page cannot be rendered
 	 */
-	public BufferedImage render(int nr, boolean titlePage) {
+	public BufferedImage render(int nr, boolean titlePage)
+			throws PdfException {
+		decoder.setPageParameters(getScale(nr), -1);
+		BufferedImage page = decoder.getPageAsImage(nr + 1);
+		if (titlePage)
+			return layoutTitlePage(page, author, title);
+		return layoutPage(page, nr, pages, bookmarks);
+	}
+
+	/**
+	 * Lays out an image (e.g. the first page) as title page
+	 * 
+	 * @param page
+	 *            image of the cover
+	 * @param author
+	 *            author shown above the cover
+	 * @param title
+	 *            title shown below the cover
+	 * @return the title page (600x800)
+	 */
+	public static BufferedImage layoutTitlePage(BufferedImage page,
+			String author, String title) {
 		BufferedImage im = new BufferedImage(600, 800,
 				BufferedImage.TYPE_4BYTE_ABGR);
-		try {
-			decoder.setPageParameters(1, -1);
-			BufferedImage page = decoder.getPageAsImage(nr + 1);
-			float scaleX = 600f / page.getWidth();
-			float scaleY = 800f / page.getHeight();
-			decoder.setPageParameters(Math.min(scaleX, scaleY), -1);
-			page = decoder.getPageAsImage(nr + 1);
-			if (titlePage) {
-				drawTitlePage(author, title, page, im.getGraphics());
-			} else {
-				drawBookPage((pages - 1), nr, page, im.getGraphics(), bookmarks);
+		drawTitlePage(author, title, page, im.getGraphics());
+		return im;
+	}
+
+	/**
+	 * Lays out an image (e.g. a rendered or scanned page) as book page,
+	 * scaled to fit with a progress bar at the bottom
+	 * 
+	 * @param page
+	 *            image of the page
+	 * @param nr
+	 *            number of the page (0-based)
+	 * @param pages
+	 *            number of pages of the book
+	 * @param bookmarks
+	 *            pages marked on the progress bar (1-based)
+	 * @return the book page (600x800)
+	 */
+	public static BufferedImage layoutPage(BufferedImage page, int nr,
+			int pages, List<Integer> bookmarks) {
+		BufferedImage im = new BufferedImage(600, 800,
+				BufferedImage.TYPE_4BYTE_ABGR);
+		drawBookPage(Math.max(1, pages - 1), nr, page, im.getGraphics(),
+				bookmarks);
+		return im;
+	}
+
+	/**
+	 * Determines the scale fitting the specified page into 600x800 from the
+	 * page geometry (only rasterizing the page if the geometry is missing)
+	 * 
+	 * @param nr
+	 *            number of page (0-based)
+	 * @return scale to render the page at
+	 * @throws PdfException
+	 */
+	private float getScale(int nr) throws PdfException {
+		if (scales[nr] == 0) {
+			PdfPageData data = decoder.getPdfPageData();
+			float width = data.getCropBoxWidth(nr + 1);
+			float height = data.getCropBoxHeight(nr + 1);
+			int rotation = data.getRotation(nr + 1);
+			if (rotation == 90 || rotation == 270) {
+				float temp = width;
+				width = height;
+				height = temp;
 			}
-		} catch (PdfException e) {
-			e.printStackTrace();
+			if (width <= 0 || height <= 0) {
+				decoder.setPageParameters(1, -1);
+				BufferedImage page = decoder.getPageAsImage(nr + 1);
+				width = page.getWidth();
+				height = page.getHeight();
+			}
+			scales[nr] = Math.min(600f / width, 800f / height);
 		}
-		return im;
+		return scales[nr];
 	}
 
 	private List<Integer> extractBookmarks(PdfDecoder decoder) {
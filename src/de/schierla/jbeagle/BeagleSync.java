@@ -0,0 +1,355 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+
+/**
+ * Synchronizes the PDF documents and comic archives of a directory (and its
+ * subdirectories) to the beagle. Books are identified by the content of their documents
+ * (see {@link BeagleUpload#getBookId(String)}), so only documents missing
+ * on the beagle, changed since the last sync, or not completely uploaded
+ * are transferred.
+ * 
+ * A manifest remembers size, modification time and content hash of every
+ * document, so only new or modified files are read to compute their hash.
+ * It also lists the books of all documents synchronized so far, until they
+ * have been pruned.
+ */
+public class BeagleSync {
+
+	/**
+	 * Outcome of a sync
+	 */
+	public static class Result {
+		private final List<File> uploaded = new ArrayList<File>();
+		private final List<String> deleted = new ArrayList<String>();
+		private int unchanged;
+
+		/**
+		 * @return documents uploaded
+		 */
+		public List<File> getUploaded() {
+			return uploaded;
+		}
+
+		/**
+		 * @return ids of the books deleted from the beagle
+		 */
+		public List<String> getDeleted() {
+			return deleted;
+		}
+
+		/**
+		 * @return number of documents already present on the beagle
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+	}
+
+	/** Manifest key prefix of the books synchronized so far */
+	private static final String BOOK_PREFIX = "book.";
+
+	private final File directory;
+	private final File manifest;
+	private boolean prune;
+
+	/**
+	 * @param directory
+	 *            directory to synchronize
+	 * @param manifest
+	 *            file to keep the content hashes in
+	 */
+	public BeagleSync(File directory, File manifest) {
+		this.directory = directory;
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Creates a sync keeping its manifest in the user's home directory
+	 * 
+	 * @param directory
+	 *            directory to synchronize
+	 * @return the sync
+	 * @throws IOException
+	 *             if the directory cannot be resolved
+	 */
+	public static BeagleSync forDirectory(File directory) throws IOException {
+		String path = directory.getCanonicalPath();
+		return new BeagleSync(directory, new File(
+				System.getProperty("user.home"), ".jbeagle" + File.separator
+						+ "sync" + File.separator + directory.getName() + "-"
+						+ Integer.toHexString(path.hashCode()) + ".properties"));
+	}
+
+	/**
+	 * Sets whether books uploaded by an earlier sync are deleted from the
+	 * beagle when their document has been changed or removed
+	 * 
+	 * @param prune
+	 *            true to delete outdated books
+	 */
+	public void setPrune(boolean prune) {
+		this.prune = prune;
+	}
+
+	/**
+	 * Uploads all documents missing on the beagle
+	 * 
+	 * @param session
+	 *            session to upload through
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param progress
+	 *            progress listener (may be null, see
+	 *            {@link BeagleUploadScheduler#upload(List, Map, ProgressListener)})
+	 * @return the documents uploaded and books deleted
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public Result sync(BeagleUploadSession session, BeaglePageCache cache,
+			ProgressListener progress) throws IOException {
+		Properties previous = loadManifest();
+		Properties next = new Properties();
+		Map<File, String> documents = fingerprint(listDocuments(), previous,
+				next);
+		Set<String> synced = getSyncedBooks(previous);
+
+		Set<String> present = new HashSet<String>();
+		for (BeagleBook book : session.getBeagle().getCatalog().getBooks())
+			present.add(book.getId());
+
+		Result result = new Result();
+		List<File> changed = new ArrayList<File>();
+		Set<String> current = new HashSet<String>();
+		BeagleJournal journal = session.getJournal();
+		for (Map.Entry<File, String> entry : documents.entrySet()) {
+			String id = BeagleUpload.getBookId(entry.getValue());
+			if (!current.add(id))
+				continue;
+			synced.add(id);
+			if (present.contains(id)
+					&& (journal == null || journal.getAcknowledgedPage(id,
+							entry.getValue()) == -1))
+				result.unchanged++;
+			else
+				changed.add(entry.getKey());
+		}
+
+		saveManifest(next, synced);
+
+		new BeagleUploadScheduler(session, cache,
+				BeagleUploadScheduler.DEFAULT_MEMORY_LIMIT).upload(changed,
+				documents, progress);
+		result.uploaded.addAll(changed);
+
+		if (prune) {
+			List<String> outdated = new ArrayList<String>();
+			for (String id : synced)
+				if (!current.contains(id) && present.contains(id))
+					outdated.add(id);
+			if (!outdated.isEmpty())
+				for (Map.Entry<String, Boolean> entry : session.getBeagle()
+						.deleteBooks(outdated).entrySet())
+					if (entry.getValue())
+						result.deleted.add(entry.getKey());
+			// forget the books no longer on the beagle
+			synced.removeAll(result.deleted);
+			for (Iterator<String> it = synced.iterator(); it.hasNext();) {
+				String id = it.next();
+				if (!current.contains(id) && !present.contains(id))
+					it.remove();
+			}
+			saveManifest(next, synced);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the books synchronized so far from the manifest (for manifests
+	 * without book entries, the books of the documents listed)
+	 */
+	private static Set<String> getSyncedBooks(Properties manifest) {
+		Set<String> ret = new TreeSet<String>();
+		for (String name : manifest.stringPropertyNames()) {
+			if (name.startsWith(BOOK_PREFIX)) {
+				ret.add(name.substring(BOOK_PREFIX.length()));
+				continue;
+			}
+			String entry = manifest.getProperty(name);
+			String hash = entry.substring(entry.lastIndexOf(' ') + 1);
+			if (hash.length() >= 16)
+				ret.add(BeagleUpload.getBookId(hash));
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes the content hashes of the documents, reusing the hashes of
+	 * unmodified files from the manifest and hashing the others in
+	 * parallel. The entries of the documents are added to the next manifest.
+	 */
+	private Map<File, String> fingerprint(List<File> files,
+			Properties previous, Properties next) throws IOException {
+		Map<File, String> known = new HashMap<File, String>();
+		Map<File, Future<String>> pending = new HashMap<File, Future<String>>();
+		ExecutorService hasher = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread ret = new Thread(r, "jBeagle sync hasher");
+				ret.setDaemon(true);
+				return ret;
+			}
+		});
+		Map<File, String> ret = new LinkedHashMap<File, String>();
+		try {
+			for (final File file : files) {
+				String entry = previous.getProperty(getName(file));
+				String hash = entry == null ? null : entry.substring(entry
+						.lastIndexOf(' ') + 1);
+				if (hash != null && entry.equals(describe(file, hash)))
+					known.put(file, hash);
+				else
+					pending.put(file, hasher.submit(new Callable<String>() {
+						public String call() throws IOException {
+							return BeaglePageCache.hash(file);
+						}
+					}));
+			}
+			for (File file : files) {
+				String hash = known.containsKey(file) ? known.get(file)
+						: pending.get(file).get();
+				ret.put(file, hash);
+				next.setProperty(getName(file), describe(file, hash));
+			}
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			hasher.shutdownNow();
+		}
+		return ret;
+	}
+
+	/**
+	 * Lists the PDF documents and comic archives in the directory and its subdirectories
+	 * 
+	 * @return documents (sorted by path)
+	 */
+	public List<File> listDocuments() {
+		List<File> ret = new ArrayList<File>();
+		listDocuments(directory, ret);
+		return ret;
+	}
+
+	private static void listDocuments(File directory, List<File> ret) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.isDirectory())
+				listDocuments(file, ret);
+			else if (file.isFile() && isDocument(file))
+				ret.add(file);
+		}
+	}
+
+	private static boolean isDocument(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".pdf") || name.endsWith(CbzPageSource.SUFFIX);
+	}
+
+	private String getName(File file) {
+		String path = file.getPath().substring(directory.getPath().length());
+		return path.replace(File.separatorChar, '/');
+	}
+
+	private static String describe(File file, String hash) {
+		return file.length() + " " + file.lastModified() + " " + hash;
+	}
+
+	private Properties loadManifest() {
+		Properties ret = new Properties();
+		if (manifest.isFile()) {
+			try {
+				InputStream in = new FileInputStream(manifest);
+				try {
+					ret.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				ret.clear();
+			}
+		}
+		return ret;
+	}
+
+	private void saveManifest(Properties documents, Set<String> books) {
+		Properties entries = new Properties();
+		entries.putAll(documents);
+		for (String id : books)
+			entries.setProperty(BOOK_PREFIX + id, "");
+		File parent = manifest.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			return;
+		File temp = new File(parent, manifest.getName() + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				entries.store(out, "jBeagle sync manifest of " + directory);
+			} finally {
+				out.close();
+			}
+			manifest.delete();
+			if (!temp.renameTo(manifest))
+				temp.delete();
+		} catch (IOException e) {
+			temp.delete();
+		}
+	}
+}
@@ -0,0 +1,422 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import de.schierla.jbeagle.BeagleConnector.PageSource;
+import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+import de.schierla.jbeagle.BeagleUtil.StatisticsListener;
+
+/**
+ * Upload of a book to the beagle, reading its pages from a
+ * {@link PageSource}. Preparing an upload reads the book metadata and lets
+ * the source prepare the pages in the background, so that a book can be
+ * prepared while another one is being transferred.
+ * 
+ * Pages are kept until the beagle acknowledged them, so an interrupted
+ * upload can be continued (see {@link #resume(BeagleConnector)}) without
+ * preparing them again. If a {@link BeagleJournal} is given, acknowledged
+ * pages are recorded there to continue at the exact next page later.
+ */
+public class BeagleUpload {
+
+	private final PageSource source;
+	private final int start;
+	private final BeagleJournal journal;
+	private final SortedMap<Integer, ByteBuffer> unacknowledged = new TreeMap<Integer, ByteBuffer>();
+	private final Map<Integer, PageStatistics> unreported = new HashMap<Integer, PageStatistics>();
+	private int acknowledged;
+	private volatile boolean aborted;
+
+	private BeagleUpload(PageSource source, int start, BeagleJournal journal) {
+		this.source = source;
+		this.start = start;
+		this.journal = journal;
+		this.acknowledged = start - 1;
+		source.start(start);
+	}
+
+	/**
+	 * Prepares the upload of a document and starts rendering its pages
+	 * 
+	 * @param file
+	 *            file to upload (see
+	 *            {@link #openSource(File, String, BeaglePageCache, long)})
+	 * @param books
+	 *            books on the beagle (to continue partial uploads)
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the pages rendered ahead of the upload (in
+	 *            bytes, {@link Long#MAX_VALUE} for the default of two pages
+	 *            per core)
+	 * @return the prepared upload (has to be closed)
+	 * @throws IOException
+	 *             if the document cannot be read
+	 */
+	public static BeagleUpload prepare(File file, List<BeagleBook> books,
+			BeaglePageCache cache, long memoryLimit) throws IOException {
+		return prepare(file, books, cache, null, memoryLimit);
+	}
+
+	/**
+	 * Prepares the upload of a document and starts rendering its pages,
+	 * continuing after the last page recorded in the journal if the beagle
+	 * still has it
+	 * 
+	 * @param file
+	 *            file to upload (see
+	 *            {@link #openSource(File, String, BeaglePageCache, long)})
+	 * @param books
+	 *            books on the beagle (to continue partial uploads)
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param journal
+	 *            journal of acknowledged pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the pages rendered ahead of the upload (in
+	 *            bytes, {@link Long#MAX_VALUE} for the default of two pages
+	 *            per core)
+	 * @return the prepared upload (has to be closed)
+	 * @throws IOException
+	 *             if the document cannot be read
+	 */
+	public static BeagleUpload prepare(File file, List<BeagleBook> books,
+			BeaglePageCache cache, BeagleJournal journal, long memoryLimit)
+			throws IOException {
+		return prepare(file, null, books, cache, journal, memoryLimit);
+	}
+
+	/**
+	 * Prepares the upload of a document whose content hash is already
+	 * known, like {@link #prepare(File, List, BeaglePageCache, BeagleJournal, long)}
+	 * 
+	 * @param file
+	 *            file to upload
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param books
+	 *            books on the beagle (to continue partial uploads)
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param journal
+	 *            journal of acknowledged pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the pages rendered ahead of the upload (in
+	 *            bytes)
+	 * @return the prepared upload (has to be closed)
+	 * @throws IOException
+	 *             if the document cannot be read
+	 */
+	public static BeagleUpload prepare(File file, String document,
+			List<BeagleBook> books, BeaglePageCache cache,
+			BeagleJournal journal, long memoryLimit) throws IOException {
+		return prepare(openSource(file, document, cache, memoryLimit), books,
+				journal);
+	}
+
+	/**
+	 * Prepares the upload of a book and lets the source start preparing its
+	 * pages, continuing a partial upload of the same book
+	 * 
+	 * @param source
+	 *            source of the pages (closed with the upload)
+	 * @param books
+	 *            books on the beagle (to continue partial uploads)
+	 * @param journal
+	 *            journal of acknowledged pages (may be null)
+	 * @return the prepared upload (has to be closed)
+	 */
+	public static BeagleUpload prepare(PageSource source,
+			List<BeagleBook> books, BeagleJournal journal) {
+		int start = 0;
+		for (BeagleBook book : books) {
+			if (source.getId().equals(book.getId())) {
+				start = book.getLastPage();
+				int recorded = journal == null ? -1 : journal
+						.getAcknowledgedPage(source.getId(),
+								source.getDocument());
+				if (recorded != -1)
+					start = Math.min(start, recorded) + 1;
+			}
+		}
+		return new BeagleUpload(source, start, journal);
+	}
+
+	/**
+	 * Opens the page source for a file: a {@link BeagleBundle} for
+	 * <code>.beaglebook</code> files, a {@link CbzPageSource} for comic
+	 * archives, a {@link DirectoryPageSource} for directories of images, and
+	 * a {@link PdfPageSource} otherwise
+	 * 
+	 * @param file
+	 *            file or directory to read
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param cache
+	 *            cache for compressed pages (may be null, only used for PDF
+	 *            documents)
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead of the upload (in
+	 *            bytes, {@link Long#MAX_VALUE} for the default of two pages
+	 *            per core)
+	 * @return the page source (not started yet)
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static PageSource openSource(File file, String document,
+			BeaglePageCache cache, long memoryLimit) throws IOException {
+		return openSource(file, document, cache, memoryLimit, Runtime
+				.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Opens the page source for a file like
+	 * {@link #openSource(File, String, BeaglePageCache, long)}, preparing
+	 * the pages with the given number of threads
+	 * 
+	 * @param file
+	 *            file or directory to read
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param cache
+	 *            cache for compressed pages (may be null, only used for PDF
+	 *            documents)
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead of the upload (in
+	 *            bytes, {@link Long#MAX_VALUE} for the default of two pages
+	 *            per thread)
+	 * @param threads
+	 *            number of threads rendering or decoding the pages
+	 * @return the page source (not started yet)
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static PageSource openSource(File file, String document,
+			BeaglePageCache cache, long memoryLimit, int threads)
+			throws IOException {
+		String name = file.getName().toLowerCase();
+		if (file.isDirectory())
+			return new DirectoryPageSource(file, memoryLimit, threads);
+		if (name.endsWith(BeagleBundle.SUFFIX))
+			return BeagleBundle.open(file);
+		if (name.endsWith(CbzPageSource.SUFFIX))
+			return new CbzPageSource(file, document, memoryLimit, threads);
+		return new PdfPageSource(file, document, cache, memoryLimit, threads);
+	}
+
+	/**
+	 * Derives the book id from the content of a document, so that different
+	 * documents never share an id even if their metadata is the same
+	 * 
+	 * @param document
+	 *            content hash of the document (see
+	 *            {@link BeaglePageCache#hash(File)})
+	 * @return book id (the first 16 hex digits of the hash)
+	 */
+	public static String getBookId(String document) {
+		return document.substring(0, 16).toUpperCase();
+	}
+
+	/**
+	 * Derives a title from a file name, without extension and with
+	 * underscores replaced by spaces
+	 * 
+	 * @param file
+	 *            file (or directory)
+	 * @return title
+	 */
+	static String getDefaultTitle(File file) {
+		String name = file.getName().replace('_', ' ');
+		if (file.isFile() && name.lastIndexOf('.') > 0)
+			name = name.substring(0, name.lastIndexOf('.'));
+		return name;
+	}
+
+	/**
+	 * Transfers the book to the beagle, starting after the last page
+	 * acknowledged so far
+	 * 
+	 * @param beagle
+	 *            the beagle to upload to
+	 * @param progress
+	 *            progress listener (may be null, a {@link StatisticsListener}
+	 *            additionally receives page timings)
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void upload(BeagleConnector beagle, ProgressListener progress)
+			throws IOException {
+		String id = getId();
+		int pages = getPageCount();
+		int first = acknowledged + 1;
+		UploadStatistics statistics = new UploadStatistics(id, first, pages
+				+ 1 - first);
+		statistics.register();
+		try {
+			beagle.uploadBook(id, getTitle(), getAuthor());
+			for (int i = first; i <= pages; i++) {
+				ByteBuffer page = unacknowledged.get(i);
+				if (page == null) {
+					page = take(i);
+					unreported.put(i, source.getStatistics(i));
+					unacknowledged.put(i, page);
+				}
+				long sent = System.nanoTime();
+				beagle.uploadPage(i, page);
+				pagesAcknowledged(beagle.getLastAcknowledgedPage());
+				PageStatistics stats = unreported.remove(i);
+				if (stats != null) {
+					stats.uploadTime = System.nanoTime() - sent;
+					statistics.add(stats);
+					if (progress instanceof StatisticsListener)
+						((StatisticsListener) progress).pageUploaded(stats,
+								statistics);
+				}
+				if (progress != null)
+					progress.progressChanged(i, pages);
+			}
+			try {
+				beagle.endBook();
+			} finally {
+				pagesAcknowledged(beagle.getLastAcknowledgedPage());
+			}
+			if (journal != null)
+				journal.remove(id);
+		} finally {
+			statistics.unregister();
+		}
+	}
+
+	private ByteBuffer take(int nr) throws IOException {
+		try {
+			return source.getCompressedPage(nr);
+		} catch (IOException e) {
+			aborted = true;
+			throw e;
+		} catch (InterruptedException e) {
+			aborted = true;
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Prepares continuing the upload on a new connection after it has been
+	 * interrupted. Pages already sent are uploaded again from memory unless
+	 * the beagle lost pages acknowledged before, which are prepared again.
+	 * 
+	 * @param beagle
+	 *            the beagle to continue on
+	 * @throws IOException
+	 *             if the book list cannot be read
+	 */
+	public void resume(BeagleConnector beagle) throws IOException {
+		BeagleBook book = beagle.getCatalog().getBook(getId());
+		int last = book == null ? -1 : Math.min(acknowledged,
+				book.getLastPage());
+		if (last < acknowledged) {
+			unacknowledged.clear();
+			unreported.clear();
+			source.start(last + 1);
+			acknowledged = last;
+		}
+	}
+
+	private void pagesAcknowledged(int nr) {
+		if (nr <= acknowledged)
+			return;
+		unacknowledged.headMap(nr + 1).clear();
+		acknowledged = nr;
+		if (journal != null)
+			journal.pageAcknowledged(getId(), source.getDocument(), nr);
+	}
+
+	/**
+	 * @return last upload page number acknowledged by the beagle (-1, if
+	 *         none)
+	 */
+	public int getAcknowledgedPage() {
+		return acknowledged;
+	}
+
+	/**
+	 * @return true, if the upload cannot be continued because the pages
+	 *         could not be prepared or it has been closed
+	 */
+	boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Stops preparing pages and releases the prepared pages. May be called
+	 * from another thread to cancel a running upload, which then fails with
+	 * an {@link IOException}.
+	 */
+	public void close() {
+		aborted = true;
+		source.close();
+	}
+
+	/**
+	 * @return the source the pages are read from
+	 */
+	public PageSource getSource() {
+		return source;
+	}
+
+	public File getFile() {
+		return source.getFile();
+	}
+
+	public String getId() {
+		return source.getId();
+	}
+
+	public String getTitle() {
+		return source.getTitle();
+	}
+
+	public String getAuthor() {
+		return source.getAuthor();
+	}
+
+	/**
+	 * @return number of pages of the document (without the title page)
+	 */
+	public int getPageCount() {
+		return source.getPageCount();
+	}
+
+	/**
+	 * @return first upload page number to transfer
+	 */
+	public int getStartPage() {
+		return start;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+import de.schierla.jbeagle.BeagleUtil.StatisticsListener;
+
+/**
+ * Uploads several books, preparing the next book while the current
+ * one is being transferred. The book list is read once before the first
+ * upload; the books prepared in advance use this list to continue partial
+ * uploads. Books are transferred through a {@link BeagleUploadSession}, so
+ * uploads may continue after a reconnect.
+ * <p>
+ * Books prepared while another one is transferred share the processor with
+ * the rendering of that book, so they get {@link #LOOKAHEAD_THREADS}
+ * threads instead of one per core.
+ */
+public class BeagleUploadScheduler {
+
+	/** Default size limit of the pages rendered in advance (32 MB) */
+	public static final long DEFAULT_MEMORY_LIMIT = 32L * 1024 * 1024;
+
+	/** Number of threads preparing a book during the previous transfer */
+	public static final int LOOKAHEAD_THREADS = Math.max(1, Runtime
+			.getRuntime().availableProcessors() / 2);
+
+	/**
+	 * Progress listener for multi-book uploads
+	 */
+	public interface BatchListener extends StatisticsListener {
+		/**
+		 * Called before a book is transferred
+		 * 
+		 * @param upload
+		 *            the book being uploaded
+		 * @param index
+		 *            index of the book (0-based)
+		 * @param count
+		 *            number of books
+		 */
+		void bookStarted(BeagleUpload upload, int index, int count);
+	}
+
+	private final BeagleUploadSession session;
+	private final BeaglePageCache cache;
+	private final long memoryLimit;
+
+	/**
+	 * @param beagle
+	 *            the beagle to upload to
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the compressed pages rendered ahead of
+	 *            the upload, for each book (in bytes)
+	 */
+	public BeagleUploadScheduler(BeagleConnector beagle,
+			BeaglePageCache cache, long memoryLimit) {
+		this(new BeagleUploadSession(beagle, null, null), cache, memoryLimit);
+	}
+
+	/**
+	 * @param session
+	 *            session to upload through
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the compressed pages rendered ahead of
+	 *            the upload, for each book (in bytes)
+	 */
+	public BeagleUploadScheduler(BeagleUploadSession session,
+			BeaglePageCache cache, long memoryLimit) {
+		this.session = session;
+		this.cache = cache;
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Uploads the given documents in order, stopping at the first error
+	 * 
+	 * @param files
+	 *            documents to upload (see
+	 *            {@link BeagleUpload#openSource(File, String, BeaglePageCache, long)})
+	 * @param progress
+	 *            progress listener (may be null, a {@link BatchListener} is
+	 *            additionally informed about every book, a
+	 *            {@link BeagleUploadSession.ReconnectListener} about
+	 *            reconnects)
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void upload(List<File> files, ProgressListener progress)
+			throws IOException {
+		upload(files, Collections.<File, String> emptyMap(), progress);
+	}
+
+	/**
+	 * Uploads the given documents in order, stopping at the first error
+	 * 
+	 * @param files
+	 *            documents to upload (see
+	 *            {@link BeagleUpload#openSource(File, String, BeaglePageCache, long)})
+	 * @param documents
+	 *            content hashes of the documents already known (see
+	 *            {@link BeaglePageCache#hash(File)}), the others are computed
+	 *            while preparing
+	 * @param progress
+	 *            progress listener (may be null, a {@link BatchListener} is
+	 *            additionally informed about every book, a
+	 *            {@link BeagleUploadSession.ReconnectListener} about
+	 *            reconnects)
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public void upload(List<File> files, Map<File, String> documents,
+			ProgressListener progress) throws IOException {
+		if (files.isEmpty())
+			return;
+		final List<BeagleBook> books = session.getBeagle().getCatalog()
+				.getBooks();
+		ExecutorService preparer = Executors
+				.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread ret = new Thread(r, "jBeagle upload preparer");
+						ret.setDaemon(true);
+						return ret;
+					}
+				});
+		Future<BeagleUpload> next = prepare(preparer, files.get(0),
+				documents, books, Runtime.getRuntime().availableProcessors());
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				BeagleUpload current = get(next);
+				next = null;
+				try {
+					if (i + 1 < files.size())
+						next = prepare(preparer, files.get(i + 1), documents,
+								books, LOOKAHEAD_THREADS);
+					if (progress instanceof BatchListener)
+						((BatchListener) progress).bookStarted(current, i,
+								files.size());
+					session.upload(current, progress);
+				} finally {
+					current.close();
+				}
+			}
+		} finally {
+			if (next != null)
+				discard(next);
+			preparer.shutdown();
+		}
+	}
+
+	private Future<BeagleUpload> prepare(ExecutorService preparer,
+			final File file, final Map<File, String> documents,
+			final List<BeagleBook> books, final int threads) {
+		return preparer.submit(new Callable<BeagleUpload>() {
+			public BeagleUpload call() throws IOException {
+				return BeagleUpload.prepare(BeagleUpload.openSource(file,
+						documents.get(file), cache, memoryLimit, threads),
+						books, session.getJournal());
+			}
+		});
+	}
+
+	private static BeagleUpload get(Future<BeagleUpload> upload)
+			throws IOException {
+		try {
+			return upload.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static void discard(Future<BeagleUpload> upload) {
+		try {
+			get(upload).close();
+		} catch (IOException e) {
+		}
+	}
+}
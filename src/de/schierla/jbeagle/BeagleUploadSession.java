@@ -0,0 +1,174 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+
+import de.schierla.jbeagle.BeagleDiscovery.RetryListener;
+import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+
+/**
+ * Connection to the beagle used for uploads that survives a dropped link:
+ * if a transfer fails, the session searches the beagle again through a
+ * {@link BeagleDiscovery}, and the upload continues on the new connection
+ * at the page after the last one acknowledged.
+ */
+public class BeagleUploadSession {
+
+	/** Default number of searches after the connection has been lost */
+	public static final int DEFAULT_RECONNECT_ATTEMPTS = 6;
+
+	/** Number of reconnects in a row without a page acknowledged in between */
+	private static final int MAX_RESUMES_WITHOUT_PROGRESS = 3;
+
+	/**
+	 * Progress listener that is also informed about reconnects
+	 */
+	public interface ReconnectListener extends RetryListener {
+		/**
+		 * Called when the connection has been lost, before searching the
+		 * beagle again
+		 * 
+		 * @param cause
+		 *            the error that ended the transfer
+		 */
+		void connectionLost(IOException cause);
+
+		/**
+		 * Called when the upload continues on a new connection
+		 * 
+		 * @param beagle
+		 *            the new connection (replacing the previous one)
+		 */
+		void reconnected(BeagleConnector beagle);
+	}
+
+	private final BeagleDiscovery discovery;
+	private final BeagleJournal journal;
+	private BeagleConnector beagle;
+	private int reconnectAttempts = DEFAULT_RECONNECT_ATTEMPTS;
+
+	/**
+	 * @param beagle
+	 *            the connection to start with
+	 * @param discovery
+	 *            discovery to reconnect with (may be null to fail on a lost
+	 *            connection)
+	 * @param journal
+	 *            journal of acknowledged pages (may be null)
+	 */
+	public BeagleUploadSession(BeagleConnector beagle,
+			BeagleDiscovery discovery, BeagleJournal journal) {
+		this.beagle = beagle;
+		this.discovery = discovery;
+		this.journal = journal;
+	}
+
+	/**
+	 * @return the current connection (changes after a reconnect)
+	 */
+	public synchronized BeagleConnector getBeagle() {
+		return beagle;
+	}
+
+	/**
+	 * @return journal of acknowledged pages (may be null)
+	 */
+	public BeagleJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Sets the number of searches after the connection has been lost
+	 * 
+	 * @param reconnectAttempts
+	 *            maximum number of searches per lost connection
+	 */
+	public void setReconnectAttempts(int reconnectAttempts) {
+		this.reconnectAttempts = reconnectAttempts;
+	}
+
+	/**
+	 * Transfers a book, reconnecting and continuing it if the connection is
+	 * lost
+	 * 
+	 * @param upload
+	 *            the book to upload
+	 * @param progress
+	 *            progress listener (may be null, a {@link ReconnectListener}
+	 *            is additionally informed about reconnects)
+	 * @throws IOException
+	 *             if rendering fails, the upload has been closed, or the
+	 *             beagle cannot be reached again
+	 */
+	public void upload(BeagleUpload upload, ProgressListener progress)
+			throws IOException {
+		int resumes = 0;
+		int acknowledged = upload.getAcknowledgedPage();
+		boolean reconnected = false;
+		while (true) {
+			try {
+				// a connection lost while resuming counts like any other
+				if (reconnected)
+					upload.resume(getBeagle());
+				upload.upload(getBeagle(), progress);
+				return;
+			} catch (IOException e) {
+				if (discovery == null || upload.isAborted())
+					throw e;
+				if (upload.getAcknowledgedPage() != acknowledged)
+					resumes = 0;
+				acknowledged = upload.getAcknowledgedPage();
+				if (++resumes > MAX_RESUMES_WITHOUT_PROGRESS)
+					throw e;
+				reconnect(e, progress);
+				reconnected = true;
+			}
+		}
+	}
+
+	private void reconnect(IOException cause, ProgressListener progress)
+			throws IOException {
+		ReconnectListener listener = progress instanceof ReconnectListener ? (ReconnectListener) progress
+				: null;
+		if (listener != null)
+			listener.connectionLost(cause);
+		BeagleConnector previous = getBeagle();
+		try {
+			previous.close();
+		} catch (IOException e) {
+		}
+
+		BeagleConnector next;
+		try {
+			next = discovery.waitForBeagle(listener, reconnectAttempts);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw cause;
+		}
+		if (next == null)
+			throw cause;
+		next.setPipelineDepth(previous.getPipelineDepth());
+		next.setChunkSize(previous.getChunkSize());
+		synchronized (this) {
+			beagle = next;
+		}
+		if (listener != null)
+			listener.reconnected(next);
+	}
+}
@@ -17,24 +17,8 @@
  */
 package de.schierla.jbeagle;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-
-import javax.bluetooth.DiscoveryAgent;
-import javax.bluetooth.LocalDevice;
-import javax.bluetooth.RemoteDevice;
-import javax.microedition.io.Connector;
-import javax.microedition.io.StreamConnection;
-
-import org.jpedal.PdfDecoder;
-import org.jpedal.exception.PdfException;
-import org.jpedal.objects.PdfFileInformation;
-
-import de.schierla.jbeagle.ui.PagePreview;
 
 /**
  * Helper class for bluetooth device search
@@ -42,30 +26,16 @@ import de.schierla.jbeagle.ui.PagePreview;
 public class BeagleUtil {
 
 	/**
-	 * Try to connect to a txtr beagle
+	 * Try to connect to a txtr beagle, trying the last beagle found first
+	 * and probing all other paired devices concurrently
 	 * 
 	 * @return the beagle, if found; null, if not found
 	 * @throws IOException
 	 *             if an error occurs
+	 * @see BeagleDiscovery
 	 */
 	public static BeagleConnector searchForBeagle() throws IOException {
-		DiscoveryAgent da = LocalDevice.getLocalDevice().getDiscoveryAgent();
-		RemoteDevice[] devices = da.retrieveDevices(DiscoveryAgent.PREKNOWN);
-		if (devices == null)
-			return null;
-		for (RemoteDevice r : devices) {
-			if ("Beagle".equals(r.getFriendlyName(false)) || "txtr beagle".equals(r.getFriendlyName(false)) ) {
-				try {
-					StreamConnection connection = (StreamConnection) Connector
-							.open("btspp://"
-									+ r.getBluetoothAddress()
-									+ ":1;authenticate=false;encrypt=false;master=false");
-					return new BeagleConnector(connection);
-				} catch (IOException e) {
-				}
-			}
-		}
-		return null;
+		return new BeagleDiscovery().connect();
 	}
 
 	/**
@@ -83,6 +53,23 @@ public class BeagleUtil {
 		void progressChanged(int page, int count);
 	}
 
+	/**
+	 * Progress listener for PDF upload that is also informed about the
+	 * timings of every uploaded page
+	 */
+	public interface StatisticsListener extends ProgressListener {
+		/**
+		 * Called after a page has been uploaded, before
+		 * {@link #progressChanged(int, int)}
+		 * 
+		 * @param page
+		 *            statistics of the uploaded page
+		 * @param upload
+		 *            statistics of the whole upload so far
+		 */
+		void pageUploaded(PageStatistics page, UploadStatistics upload);
+	}
+
 	/**
 	 * Uploads a pdf document to the txtr beagle
 	 * 
@@ -96,87 +83,37 @@ public class BeagleUtil {
 	 *             if an error occurs
 	 */
 	public static void uploadPDF(BeagleConnector beagle, File file,
-			final ProgressListener progress) throws IOException {
-		try {
-			final PdfDecoder decoder = new PdfDecoder();
-			decoder.openPdfFile(file.getAbsolutePath());
-
-			String name = file.getName().replace('_', ' ');
-			if (name.toLowerCase().endsWith(".pdf"))
-				name = name.substring(0, name.length() - 4);
-
-			final String author = getMetadata(decoder, "Author", "No Author");
-			final String title = getMetadata(decoder, "Title", name);
-			final int pages = decoder.getPageCount();
-
-			final long id = (((long) author.hashCode()) << 32)
-					+ title.hashCode();
-			String uuid = Long.toHexString(id).toUpperCase();
-
-			final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(
-					3);
-			final PagePreview preview = null; // new PagePreview(title);
-
-			// continue book if it already exists
-			int start = 0;
-			List<BeagleBook> existingBooks = beagle.listBooks();
-			for (BeagleBook book : existingBooks) {
-				if (uuid.equals(book.getId())) {
-					start = book.getLastPage();
-				}
-			}
-			final int startpage = start;
-
-			new Thread(new Runnable() {
-				public void run() {
-					BeagleRenderer renderer = new BeagleRenderer(decoder,
-							author, title);
-					try {
-						if (startpage == 0)
-							queue.put(BeagleCompressor.encodeImage(renderer
-									.render(0, true)));
-						for (int i = (startpage == 0 ? 0 : startpage - 1); i < pages; i++) {
-							BufferedImage image = renderer.render(i, false);
-							if (preview != null)
-								preview.showPage(image);
-							queue.put(BeagleCompressor.encodeImage(image));
-						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-			}).start();
-
-			beagle.uploadBook(uuid, title, author);
-			for (int i = start; i <= pages; i++) {
-				beagle.uploadPage(i, queue.take());
-				progress.progressChanged(i, pages);
-			}
-			beagle.endBook();
-
-		} catch (PdfException e) {
-			throw new IOException(e);
-		} catch (InterruptedException e) {
-			throw new IOException(e);
-		}
+			ProgressListener progress) throws IOException {
+		uploadPDF(beagle, file, progress, BeaglePageCache.getDefault());
 	}
 
-	private static String getMetadata(PdfDecoder decoder, String key,
-			String defaultValue) {
-		String[] fieldNames = PdfFileInformation.getFieldNames();
-		String[] metadata = decoder.getFileInformationData().getFieldValues();
-
-		for (int i = 0; i < fieldNames.length; i++) {
-			if (key.equals(fieldNames[i])) {
-				String value = metadata[i];
-				if (value == null || value.isEmpty())
-					return defaultValue;
-				return value;
-			}
+	/**
+	 * Uploads a pdf document to the txtr beagle, continuing a partial upload
+	 * after the last page recorded in the default {@link BeagleJournal}
+	 * 
+	 * @param beagle
+	 *            the beagle to upload to
+	 * @param file
+	 *            file to upload
+	 * @param progress
+	 *            progress listener (may be null, a {@link StatisticsListener}
+	 *            additionally receives page timings)
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public static void uploadPDF(BeagleConnector beagle, File file,
+			ProgressListener progress, BeaglePageCache cache)
+			throws IOException {
+		BeagleUpload upload = BeagleUpload.prepare(file, beagle.getCatalog()
+				.getBooks(), cache, BeagleJournal.getDefault(),
+				BeagleUploadScheduler.DEFAULT_MEMORY_LIMIT);
+		try {
+			upload.upload(beagle, progress);
+		} finally {
+			upload.close();
 		}
-		return defaultValue;
 	}
 
 }
@@ -0,0 +1,148 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Pages of a comic book archive (a ZIP file of images), in the order of the
+ * image names
+ */
+public class CbzPageSource extends ImagePageSource {
+
+	/** File name suffix of comic book archives */
+	public static final String SUFFIX = ".cbz";
+
+	private final ZipFile zip;
+	private final List<ZipEntry> images = new ArrayList<ZipEntry>();
+
+	/**
+	 * Opens a comic book archive
+	 * 
+	 * @param file
+	 *            archive to read
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            core)
+	 * @throws IOException
+	 *             if the file is no archive or contains no images
+	 */
+	public CbzPageSource(File file, String document, long memoryLimit)
+			throws IOException {
+		this(file, document, memoryLimit, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Opens a comic book archive, to be decoded by the given number of
+	 * threads
+	 * 
+	 * @param file
+	 *            archive to read
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            thread)
+	 * @param threads
+	 *            number of decoding threads
+	 * @throws IOException
+	 *             if the file is no archive or contains no images
+	 */
+	public CbzPageSource(File file, String document, long memoryLimit,
+			int threads) throws IOException {
+		super(file, document != null ? document : BeaglePageCache.hash(file),
+				memoryLimit, threads);
+		zip = new ZipFile(file);
+		for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries
+				.hasMoreElements();) {
+			ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && isImage(entry.getName()))
+				images.add(entry);
+		}
+		if (images.isEmpty()) {
+			zip.close();
+			throw new IOException("No images found in " + file);
+		}
+		Collections.sort(images, new Comparator<ZipEntry>() {
+			public int compare(ZipEntry a, ZipEntry b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+	}
+
+	private static boolean isImage(String name) {
+		name = name.toLowerCase();
+		if (name.startsWith("__macosx/"))
+			return false;
+		for (String suffix : ImageIO.getReaderFileSuffixes())
+			if (suffix.length() > 0 && name.endsWith("." + suffix))
+				return true;
+		return false;
+	}
+
+	@Override
+	protected BufferedImage readImage(int index) throws IOException {
+		InputStream in = zip.getInputStream(images.get(index));
+		try {
+			ImageInputStream image = ImageIO.createImageInputStream(in);
+			if (image == null)
+				throw new IOException("Could not read "
+						+ images.get(index).getName());
+			try {
+				return decode(image);
+			} finally {
+				image.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getPageCount() {
+		return images.size();
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		try {
+			zip.close();
+		} catch (IOException e) {
+		}
+	}
+}
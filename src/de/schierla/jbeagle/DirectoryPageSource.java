@@ -0,0 +1,145 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Pages of a directory of images (e.g. a scanned book), in the order of
+ * their file names
+ */
+public class DirectoryPageSource extends ImagePageSource {
+
+	private final List<File> images;
+
+	/**
+	 * Lists the images of a directory and computes their content hash
+	 * 
+	 * @param directory
+	 *            directory containing the images
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            core)
+	 * @throws IOException
+	 *             if the directory contains no images, or they cannot be
+	 *             read
+	 */
+	public DirectoryPageSource(File directory, long memoryLimit)
+			throws IOException {
+		this(directory, memoryLimit, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Lists the images of a directory and computes their content hash
+	 * 
+	 * @param directory
+	 *            directory containing the images
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            thread)
+	 * @param threads
+	 *            number of decoding threads
+	 * @throws IOException
+	 *             if the directory contains no images, or they cannot be
+	 *             read
+	 */
+	public DirectoryPageSource(File directory, long memoryLimit, int threads)
+			throws IOException {
+		this(directory, listImages(directory), memoryLimit, threads);
+	}
+
+	private DirectoryPageSource(File directory, List<File> images,
+			long memoryLimit, int threads) throws IOException {
+		super(directory, BeaglePageCache.hash(images), memoryLimit, threads);
+		this.images = images;
+	}
+
+	/**
+	 * Checks whether a directory contains images that can be read as book
+	 * 
+	 * @param directory
+	 *            directory to check
+	 * @return true, if the directory contains at least one image
+	 */
+	public static boolean containsImages(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				if (isImage(file))
+					return true;
+		return false;
+	}
+
+	/**
+	 * @param file
+	 *            file to check
+	 * @return true, if the file is an image in a format supported by
+	 *         {@link ImageIO}
+	 */
+	public static boolean isImage(File file) {
+		if (!file.isFile())
+			return false;
+		String name = file.getName().toLowerCase();
+		for (String suffix : ImageIO.getReaderFileSuffixes())
+			if (suffix.length() > 0 && name.endsWith("." + suffix))
+				return true;
+		return false;
+	}
+
+	private static List<File> listImages(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new IOException("Could not read directory " + directory);
+		Arrays.sort(files);
+		List<File> ret = new ArrayList<File>();
+		for (File file : files)
+			if (isImage(file))
+				ret.add(file);
+		if (ret.isEmpty())
+			throw new IOException("No images found in " + directory);
+		return ret;
+	}
+
+	@Override
+	protected BufferedImage readImage(int index) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(images
+				.get(index));
+		if (in == null)
+			throw new IOException("Could not read " + images.get(index));
+		try {
+			return decode(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getPageCount() {
+		return images.size();
+	}
+}
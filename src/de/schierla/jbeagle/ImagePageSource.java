@@ -0,0 +1,239 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import de.schierla.jbeagle.BeagleConnector.PageSource;
+
+/**
+ * Pages of a sequence of images (e.g. scanned pages or a comic), decoded,
+ * scaled and compressed (on all available cores, unless configured
+ * otherwise). The first image is also used as cover of the title page.
+ */
+public abstract class ImagePageSource implements PageSource {
+
+	private final File file;
+	private final String document;
+	private final String title;
+	private final long memoryLimit;
+	private final int threads;
+	private final Map<Integer, PageStatistics> statistics = new HashMap<Integer, PageStatistics>();
+	private Decoder decoder;
+	private boolean closed;
+
+	/**
+	 * @param file
+	 *            file (or directory) containing the images
+	 * @param document
+	 *            content hash of the images
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            core)
+	 */
+	protected ImagePageSource(File file, String document, long memoryLimit) {
+		this(file, document, memoryLimit, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * @param file
+	 *            file (or directory) containing the images
+	 * @param document
+	 *            content hash of the images
+	 * @param memoryLimit
+	 *            maximum size of the pages prepared ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            thread)
+	 * @param threads
+	 *            number of decoding threads
+	 */
+	protected ImagePageSource(File file, String document, long memoryLimit,
+			int threads) {
+		this.file = file;
+		this.document = document;
+		this.title = BeagleUpload.getDefaultTitle(file);
+		this.memoryLimit = memoryLimit;
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads an image, called concurrently by the decoding threads
+	 * 
+	 * @param index
+	 *            index of the image (0-based)
+	 * @return the image
+	 * @throws IOException
+	 *             if the image cannot be read
+	 */
+	protected abstract BufferedImage readImage(int index) throws IOException;
+
+	/**
+	 * Decodes an image, skipping the pixels that would be lost when scaling
+	 * it to the page size (600x800), so large scans are never decoded at
+	 * full resolution
+	 * 
+	 * @param in
+	 *            stream to read the image from
+	 * @return the (subsampled) image; null, if the format is not supported
+	 * @throws IOException
+	 *             if the image cannot be read
+	 */
+	protected static BufferedImage decode(ImageInputStream in)
+			throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext())
+			return null;
+		ImageReader reader = readers.next();
+		try {
+			reader.setInput(in, true, true);
+			int step = Math.max(1, Math.max(reader.getWidth(0) / 600,
+					reader.getHeight(0) / 800));
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(step, step, 0, 0);
+			return reader.read(0, param);
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	public synchronized void start(int first) {
+		if (decoder != null)
+			decoder.cancel();
+		statistics.clear();
+		if (!closed)
+			decoder = new Decoder(first);
+	}
+
+	public ByteBuffer getCompressedPage(int nr) throws IOException,
+			InterruptedException {
+		Decoder decoder;
+		synchronized (this) {
+			if (closed)
+				throw new IOException("Source has been closed");
+			decoder = this.decoder;
+		}
+		if (decoder == null)
+			throw new IllegalStateException("Source has not been started");
+		long start = System.nanoTime();
+		byte[] page = decoder.take(nr);
+		synchronized (this) {
+			PageStatistics stats = statistics.get(nr);
+			if (stats != null) {
+				stats.queueTime = System.nanoTime() - start;
+				stats.queued = decoder.getBufferedCount() + 1;
+			}
+		}
+		return ByteBuffer.wrap(page);
+	}
+
+	public synchronized PageStatistics getStatistics(int nr) {
+		return statistics.remove(nr);
+	}
+
+	public synchronized void close() {
+		closed = true;
+		statistics.clear();
+		if (decoder != null)
+			decoder.cancel();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getId() {
+		return BeagleUpload.getBookId(document);
+	}
+
+	public String getDocument() {
+		return document;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getAuthor() {
+		return "No Author";
+	}
+
+	/**
+	 * Pipeline decoding the images into compressed pages
+	 */
+	private class Decoder extends BeaglePipeline<byte[]> {
+		Decoder(int first) {
+			super("jBeagle image decoder", first, getPageCount() + 1, threads,
+					memoryLimit == Long.MAX_VALUE ? 2 * threads : getPageCount()
+							+ 1 - first, memoryLimit);
+			start();
+		}
+
+		@Override
+		protected long getSize(byte[] page) {
+			return page.length;
+		}
+
+		@Override
+		protected Worker<byte[]> createWorker() {
+			final BeagleCompressor compressor = new BeagleCompressor();
+			return new Worker<byte[]>() {
+				public byte[] produce(int nr) throws IOException {
+					PageStatistics stats = new PageStatistics(nr);
+					long start = System.nanoTime();
+					BufferedImage image = readImage(Math.max(0, nr - 1));
+					if (image == null)
+						throw new IOException("Unsupported image format ("
+								+ getTitle() + ", page " + nr + ")");
+					BufferedImage page = nr == 0 ? BeagleRenderer
+							.layoutTitlePage(image, getAuthor(), getTitle())
+							: BeagleRenderer.layoutPage(image, nr - 1,
+									getPageCount(),
+									Collections.<Integer> emptyList());
+					stats.renderTime = System.nanoTime() - start;
+					byte[] ret = compressor.encode(page);
+					stats.packTime = compressor.getPackTime();
+					stats.deflateTime = compressor.getDeflateTime();
+					stats.reused = compressor.isContentReused();
+					stats.size = ret.length;
+					synchronized (ImagePageSource.this) {
+						statistics.put(nr, stats);
+					}
+					return ret;
+				}
+
+				public void close() {
+					compressor.close();
+				}
+			};
+		}
+	}
+}
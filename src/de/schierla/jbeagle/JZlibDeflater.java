@@ -0,0 +1,96 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+
+import com.jcraft.jzlib.Deflater;
+import com.jcraft.jzlib.JZlib;
+
+/**
+ * Pure Java deflate implementation based on jzlib, writing gzip streams with
+ * a 2 KB window
+ */
+public class JZlibDeflater implements BeagleDeflater {
+
+	private final Deflater deflater = new Deflater();
+	private final int level;
+	private final int strategy;
+
+	public JZlibDeflater() {
+		this(DEFAULT_COMPRESSION, DEFAULT_STRATEGY);
+	}
+
+	/**
+	 * @param level
+	 *            compression level (0-9, or {@link #DEFAULT_COMPRESSION})
+	 * @param strategy
+	 *            compression strategy ({@link #DEFAULT_STRATEGY},
+	 *            {@link #FILTERED} or {@link #HUFFMAN_ONLY})
+	 */
+	public JZlibDeflater(int level, int strategy) {
+		this.level = level;
+		this.strategy = strategy;
+	}
+
+	public int compress(byte[] raw, int length, byte[] target, int offset)
+			throws IOException {
+		// jzlib offers no public reset, so init() replaces the deflate state
+		deflater.init(level, 27, 9);
+		if (strategy != DEFAULT_STRATEGY)
+			deflater.params(level, strategy);
+		deflater.setInput(raw, 0, length, false);
+		deflater.setOutput(target, offset, target.length - offset);
+		int err = deflater.deflate(JZlib.Z_FINISH);
+		deflater.end();
+		if (err != JZlib.Z_STREAM_END)
+			throw new IOException("Could not compress page (" + err + ")");
+		return deflater.getNextOutIndex() - offset;
+	}
+
+	public int compressRaw(byte[] raw, int offset, int length, boolean last,
+			byte[] target, int targetOffset) throws IOException {
+		// negative window bits select raw deflate with the same 2 KB window
+		deflater.init(level, -11, 9);
+		if (strategy != DEFAULT_STRATEGY)
+			deflater.params(level, strategy);
+		deflater.setInput(raw, offset, length, false);
+		deflater.setOutput(target, targetOffset, target.length - targetOffset);
+		int err = deflater.deflate(last ? JZlib.Z_FINISH : JZlib.Z_FULL_FLUSH);
+		int remaining = deflater.getAvailIn();
+		int space = deflater.getAvailOut();
+		deflater.end();
+		if (last ? err != JZlib.Z_STREAM_END : err != JZlib.Z_OK
+				|| remaining > 0 || space == 0)
+			throw new IOException("Could not compress page (" + err + ")");
+		return deflater.getNextOutIndex() - targetOffset;
+	}
+
+	public void close() {
+		// the deflate state is already released after every page
+	}
+
+	public String getParameters() {
+		return "jzlib-l" + level + "-s" + strategy;
+	}
+
+	@Override
+	public String toString() {
+		return "jzlib (level " + level + ", strategy " + strategy + ")";
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflate implementation based on the zlib bundled with the JDK, writing the
+ * same gzip header and trailer as {@link JZlibDeflater}.
+ * 
+ * java.util.zip does not allow restricting the window size, so the input is
+ * compressed in blocks of {@link #WINDOW_SIZE} bytes, each ending with a full
+ * flush. No match reaches back further than the 2 KB window used by
+ * {@link JZlibDeflater}, which is the only window known to be accepted by the
+ * beagle.
+ */
+public class NativeDeflater implements BeagleDeflater {
+
+	/** Maximum distance of a match (the window of {@link JZlibDeflater}) */
+	public static final int WINDOW_SIZE = 2048;
+
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final int level;
+	private final int strategy;
+
+	public NativeDeflater() {
+		this(DEFAULT_COMPRESSION, DEFAULT_STRATEGY);
+	}
+
+	/**
+	 * @param level
+	 *            compression level (0-9, or {@link #DEFAULT_COMPRESSION})
+	 * @param strategy
+	 *            compression strategy ({@link #DEFAULT_STRATEGY},
+	 *            {@link #FILTERED} or {@link #HUFFMAN_ONLY})
+	 */
+	public NativeDeflater(int level, int strategy) {
+		this.level = level;
+		this.strategy = strategy;
+		deflater = new Deflater(level, true);
+		deflater.setStrategy(strategy);
+		// apply the strategy now, as changing the parameters while
+		// compressing ignores the flush mode of that call
+		deflater.deflate(new byte[0]);
+	}
+
+	public int compress(byte[] raw, int length, byte[] target, int offset)
+			throws IOException {
+		int end = target.length - BeagleCompressor.GZIP_TRAILER_SIZE;
+		if (end - offset < BeagleCompressor.GZIP_HEADER_SIZE)
+			throw new IOException("Could not compress page (buffer too small)");
+		int pos = BeagleCompressor.writeGzipHeader(target, offset);
+		pos += compressRaw(raw, 0, length, true, target, pos);
+		if (pos > end)
+			throw new IOException("Could not compress page (buffer too small)");
+		crc.reset();
+		crc.update(raw, 0, length);
+		BeagleCompressor.writeGzipTrailer(target, pos, (int) crc.getValue(),
+				length);
+		return pos + BeagleCompressor.GZIP_TRAILER_SIZE - offset;
+	}
+
+	public int compressRaw(byte[] raw, int offset, int length, boolean last,
+			byte[] target, int targetOffset) throws IOException {
+		deflater.reset();
+		int pos = targetOffset;
+		int end = target.length;
+		for (int block = 0; block < length; block += WINDOW_SIZE) {
+			deflater.setInput(raw, offset + block,
+					Math.min(WINDOW_SIZE, length - block));
+			if (!last || block + WINDOW_SIZE < length) {
+				// the full flush keeps later blocks from referencing this one
+				do {
+					pos += deflater.deflate(target, pos, end - pos,
+							Deflater.FULL_FLUSH);
+					if (pos == end)
+						throw new IOException(
+								"Could not compress page (buffer too small)");
+				} while (!deflater.needsInput());
+			}
+		}
+		if (last) {
+			deflater.finish();
+			while (!deflater.finished() && pos < end)
+				pos += deflater.deflate(target, pos, end - pos);
+			if (!deflater.finished())
+				throw new IOException(
+						"Could not compress page (buffer too small)");
+		}
+		return pos - targetOffset;
+	}
+
+	/**
+	 * Releases the native zlib memory (the deflater cannot be used
+	 * afterwards)
+	 */
+	public void close() {
+		deflater.end();
+	}
+
+	public String getParameters() {
+		return "zlib" + WINDOW_SIZE + "-l" + level + "-s" + strategy;
+	}
+
+	@Override
+	public String toString() {
+		return "java.util.zip (level " + level + ", strategy " + strategy
+				+ ")";
+	}
+}
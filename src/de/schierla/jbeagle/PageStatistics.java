@@ -0,0 +1,129 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+/**
+ * Timings and sizes measured while preparing and uploading one page. All
+ * times are given in nanoseconds.
+ */
+public class PageStatistics {
+
+	private final int page;
+	long renderTime;
+	long packTime;
+	long deflateTime;
+	long queueTime;
+	long uploadTime;
+	int size;
+	int queued;
+	boolean cached;
+	boolean reused;
+
+	/**
+	 * @param page
+	 *            upload page number
+	 */
+	public PageStatistics(int page) {
+		this.page = page;
+	}
+
+	/**
+	 * @return upload page number
+	 */
+	public int getPage() {
+		return page;
+	}
+
+	/**
+	 * @return time spent rendering the page into an image
+	 */
+	public long getRenderTime() {
+		return renderTime;
+	}
+
+	/**
+	 * @return time spent quantizing and packing the image
+	 */
+	public long getPackTime() {
+		return packTime;
+	}
+
+	/**
+	 * @return time spent compressing the packed page
+	 */
+	public long getDeflateTime() {
+		return deflateTime;
+	}
+
+	/**
+	 * @return time the uploader waited for the page to be rendered (the
+	 *         render queue was empty)
+	 */
+	public long getQueueTime() {
+		return queueTime;
+	}
+
+	/**
+	 * @return time spent sending the page and waiting for PAGEOK (with
+	 *         pipelining, waiting for the acknowledgement of earlier pages)
+	 */
+	public long getUploadTime() {
+		return uploadTime;
+	}
+
+	/**
+	 * @return size of the compressed page (in bytes)
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of rendered pages waiting in the queue when the page was
+	 *         taken (including this one)
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return whether the page was read from the page cache instead of being
+	 *         rendered
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/**
+	 * @return whether the compressed content of the page was reused from a
+	 *         uniform or an identical page instead of being compressed
+	 */
+	public boolean isReused() {
+		return reused;
+	}
+
+	@Override
+	public String toString() {
+		return "page " + page + ": render " + renderTime / 1000000
+				+ " ms, pack " + packTime / 1000000 + " ms, deflate "
+				+ deflateTime / 1000000 + " ms, queue " + queueTime / 1000000
+				+ " ms, upload " + uploadTime / 1000000 + " ms, " + size
+				+ " bytes, " + queued + " queued" + (cached ? ", cached" : "")
+				+ (reused ? ", reused" : "");
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jpedal.PdfDecoder;
+import org.jpedal.exception.PdfException;
+import org.jpedal.objects.PdfFileInformation;
+
+import de.schierla.jbeagle.BeagleConnector.PageSource;
+
+/**
+ * Pages of a PDF document, rendered by a {@link BeagleRenderPool} (on all
+ * available cores, unless configured otherwise)
+ */
+public class PdfPageSource implements PageSource {
+
+	private final File file;
+	private final String document;
+	private final String title;
+	private final String author;
+	private final int pages;
+	private final BeaglePageCache cache;
+	private final long memoryLimit;
+	private final int threads;
+	private BeagleRenderPool renderer;
+	private boolean closed;
+
+	/**
+	 * Reads the metadata of a PDF document
+	 * 
+	 * @param file
+	 *            PDF document
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the pages rendered ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            core)
+	 * @throws IOException
+	 *             if the document cannot be read
+	 */
+	public PdfPageSource(File file, String document, BeaglePageCache cache,
+			long memoryLimit) throws IOException {
+		this(file, document, cache, memoryLimit, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Reads the metadata of a PDF document, to be rendered by the given
+	 * number of threads
+	 * 
+	 * @param file
+	 *            PDF document
+	 * @param document
+	 *            content hash of the file (see
+	 *            {@link BeaglePageCache#hash(File)}, null to compute it)
+	 * @param cache
+	 *            cache for compressed pages (may be null)
+	 * @param memoryLimit
+	 *            maximum size of the pages rendered ahead (in bytes,
+	 *            {@link Long#MAX_VALUE} for the default of two pages per
+	 *            thread)
+	 * @param threads
+	 *            number of rendering threads
+	 * @throws IOException
+	 *             if the document cannot be read
+	 */
+	public PdfPageSource(File file, String document, BeaglePageCache cache,
+			long memoryLimit, int threads) throws IOException {
+		this.file = file;
+		this.document = document != null ? document : BeaglePageCache
+				.hash(file);
+		this.cache = cache;
+		this.memoryLimit = memoryLimit;
+		this.threads = threads;
+		try {
+			PdfDecoder decoder = new PdfDecoder();
+			decoder.openPdfFile(file.getAbsolutePath());
+			try {
+				author = getMetadata(decoder, "Author", "No Author");
+				title = getMetadata(decoder, "Title",
+						BeagleUpload.getDefaultTitle(file));
+				pages = decoder.getPageCount();
+			} finally {
+				decoder.closePdfFile();
+			}
+		} catch (PdfException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public synchronized void start(int first) {
+		if (renderer != null)
+			renderer.close();
+		if (!closed)
+			renderer = new BeagleRenderPool(file, author, title, first,
+					pages + 1, threads, cache, document, memoryLimit);
+	}
+
+	public ByteBuffer getCompressedPage(int nr) throws IOException,
+			InterruptedException {
+		BeagleRenderPool renderer;
+		synchronized (this) {
+			if (closed)
+				throw new IOException("Source has been closed");
+			renderer = this.renderer;
+		}
+		if (renderer == null)
+			throw new IllegalStateException("Source has not been started");
+		return ByteBuffer.wrap(renderer.take(nr));
+	}
+
+	public synchronized PageStatistics getStatistics(int nr) {
+		return renderer == null ? null : renderer.getStatistics(nr);
+	}
+
+	public synchronized void close() {
+		closed = true;
+		if (renderer != null)
+			renderer.close();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getId() {
+		return BeagleUpload.getBookId(document);
+	}
+
+	public String getDocument() {
+		return document;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public int getPageCount() {
+		return pages;
+	}
+
+	private static String getMetadata(PdfDecoder decoder, String key,
+			String defaultValue) {
+		String[] fieldNames = PdfFileInformation.getFieldNames();
+		String[] metadata = decoder.getFileInformationData().getFieldValues();
+
+		for (int i = 0; i < fieldNames.length; i++) {
+			if (key.equals(fieldNames[i])) {
+				String value = metadata[i];
+				if (value == null || value.isEmpty())
+					return defaultValue;
+				return value;
+			}
+		}
+		return defaultValue;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a running book upload, accumulated from the
+ * {@link PageStatistics} of the uploaded pages. Throughput and remaining time
+ * are estimated from the last {@link #WINDOW} pages. While registered, the
+ * statistics can be watched as MBean
+ * <code>de.schierla.jbeagle:type=Upload,id=&lt;book id&gt;</code>.
+ */
+public class UploadStatistics implements UploadStatisticsMBean {
+
+	/** Number of pages used to estimate the current throughput */
+	public static final int WINDOW = 16;
+
+	private final String id;
+	private final int count;
+	private final long[] times = new long[WINDOW];
+	private final long[] sizes = new long[WINDOW];
+	private ObjectName name;
+
+	private int current = -1;
+	private int uploaded;
+	private long bytes;
+	private long renderTime;
+	private long packTime;
+	private long deflateTime;
+	private long queueTime;
+	private long uploadTime;
+	private int rendered;
+	private int queued;
+	private int cached;
+
+	/**
+	 * @param id
+	 *            id of the uploaded book
+	 * @param first
+	 *            first upload page number
+	 * @param count
+	 *            number of pages to upload
+	 */
+	public UploadStatistics(String id, int first, int count) {
+		this.id = id;
+		this.count = count;
+		this.current = first - 1;
+		times[0] = System.nanoTime();
+	}
+
+	/**
+	 * Adds the statistics of an uploaded page
+	 * 
+	 * @param page
+	 *            statistics of the page
+	 */
+	public synchronized void add(PageStatistics page) {
+		uploaded++;
+		current = page.getPage();
+		bytes += page.getSize();
+		queueTime += page.getQueueTime();
+		uploadTime += page.getUploadTime();
+		queued = page.getQueued();
+		if (page.isCached()) {
+			cached++;
+		} else {
+			rendered++;
+			renderTime += page.getRenderTime();
+			packTime += page.getPackTime();
+			deflateTime += page.getDeflateTime();
+		}
+		times[uploaded % WINDOW] = System.nanoTime();
+		sizes[uploaded % WINDOW] = bytes;
+	}
+
+	/**
+	 * Registers these statistics with the platform MBean server. Failures
+	 * are ignored, as the statistics are only informational.
+	 */
+	public synchronized void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("de.schierla.jbeagle:type=Upload,id="
+					+ ObjectName.quote(id));
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				this.name = name;
+			}
+		} catch (JMException e) {
+		}
+	}
+
+	/**
+	 * Removes these statistics from the platform MBean server
+	 */
+	public synchronized void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+		}
+		name = null;
+	}
+
+	public String getBookId() {
+		return id;
+	}
+
+	public synchronized int getCurrentPage() {
+		return current;
+	}
+
+	public int getPageCount() {
+		return count;
+	}
+
+	public synchronized int getUploadedPages() {
+		return uploaded;
+	}
+
+	public synchronized long getUploadedBytes() {
+		return bytes;
+	}
+
+	public synchronized double getPagesPerSecond() {
+		int n = Math.min(uploaded, WINDOW - 1);
+		if (n == 0)
+			return 0;
+		return n * 1e9 / getWindowTime(n);
+	}
+
+	public synchronized double getBytesPerSecond() {
+		int n = Math.min(uploaded, WINDOW - 1);
+		if (n == 0)
+			return 0;
+		return (sizes[uploaded % WINDOW] - sizes[(uploaded - n) % WINDOW])
+				* 1e9 / getWindowTime(n);
+	}
+
+	/**
+	 * @return estimated time until all pages are uploaded (in milliseconds);
+	 *         -1, if unknown
+	 */
+	public synchronized long getEstimatedTimeRemaining() {
+		double rate = getPagesPerSecond();
+		if (rate == 0)
+			return -1;
+		return (long) ((count - uploaded) * 1000 / rate);
+	}
+
+	public synchronized double getAverageRenderTime() {
+		return average(renderTime, rendered);
+	}
+
+	public synchronized double getAveragePackTime() {
+		return average(packTime, rendered);
+	}
+
+	public synchronized double getAverageDeflateTime() {
+		return average(deflateTime, rendered);
+	}
+
+	public synchronized double getAverageQueueTime() {
+		return average(queueTime, uploaded);
+	}
+
+	public synchronized double getAverageUploadTime() {
+		return average(uploadTime, uploaded);
+	}
+
+	public synchronized int getQueuedPages() {
+		return queued;
+	}
+
+	public synchronized int getCachedPages() {
+		return cached;
+	}
+
+	private long getWindowTime(int n) {
+		return Math.max(1, times[uploaded % WINDOW]
+				- times[(uploaded - n) % WINDOW]);
+	}
+
+	private static double average(long total, int n) {
+		return n == 0 ? 0 : total / 1e6 / n;
+	}
+}
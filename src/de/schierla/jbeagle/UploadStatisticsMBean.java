@@ -0,0 +1,55 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+/**
+ * Management interface of {@link UploadStatistics}. Times are given in
+ * milliseconds.
+ */
+public interface UploadStatisticsMBean {
+
+	String getBookId();
+
+	int getCurrentPage();
+
+	int getPageCount();
+
+	int getUploadedPages();
+
+	long getUploadedBytes();
+
+	double getPagesPerSecond();
+
+	double getBytesPerSecond();
+
+	long getEstimatedTimeRemaining();
+
+	double getAverageRenderTime();
+
+	double getAveragePackTime();
+
+	double getAverageDeflateTime();
+
+	double getAverageQueueTime();
+
+	double getAverageUploadTime();
+
+	int getQueuedPages();
+
+	int getCachedPages();
+}
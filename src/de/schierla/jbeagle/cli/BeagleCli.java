@@ -0,0 +1,471 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import de.schierla.jbeagle.BeagleBook;
+import de.schierla.jbeagle.BeagleBundle;
+import de.schierla.jbeagle.BeagleCompressor;
+import de.schierla.jbeagle.BeagleConnector;
+import de.schierla.jbeagle.BeagleDeflater;
+import de.schierla.jbeagle.BeagleDiscovery;
+import de.schierla.jbeagle.BeagleJournal;
+import de.schierla.jbeagle.BeaglePageCache;
+import de.schierla.jbeagle.BeagleSync;
+import de.schierla.jbeagle.BeagleUpload;
+import de.schierla.jbeagle.BeagleUploadScheduler;
+import de.schierla.jbeagle.BeagleUploadScheduler.BatchListener;
+import de.schierla.jbeagle.BeagleUploadSession;
+import de.schierla.jbeagle.BeagleUploadSession.ReconnectListener;
+import de.schierla.jbeagle.CbzPageSource;
+import de.schierla.jbeagle.DirectoryPageSource;
+import de.schierla.jbeagle.PageStatistics;
+import de.schierla.jbeagle.UploadStatistics;
+import de.schierla.jbeagle.transport.RfcommTransport;
+import de.schierla.jbeagle.transport.SocketTransport;
+
+/**
+ * Command line interface for scripted use without a user interface. Results
+ * are written to standard output as tab separated lines, messages to
+ * standard error.
+ */
+public class BeagleCli {
+
+	/** Exit code: success */
+	public static final int OK = 0;
+	/** Exit code: the command failed */
+	public static final int ERROR = 1;
+	/** Exit code: invalid command line */
+	public static final int USAGE = 2;
+	/** Exit code: no beagle found */
+	public static final int NOT_FOUND = 3;
+
+	private static final String USAGE_TEXT = "Usage: BeagleCli [options] command [arguments]\n"
+			+ "Commands:\n"
+			+ "  list                   list books (id, title, author, current, first, last page)\n"
+			+ "  info                   show device information (key, value)\n"
+			+ "  upload file|dir...     upload PDF documents, .cbz comics and .beaglebook\n"
+			+ "                         files (all of them in a directory, or a directory\n"
+			+ "                         of images as one book)\n"
+			+ "  delete id...           delete books (id, OK or ERROR)\n"
+			+ "  convert file|dir...    convert PDF documents, .cbz comics or directories\n"
+			+ "                         of images into .beaglebook files\n"
+			+ "                         (uploaded without rendering)\n"
+			+ "  sync dir               upload the documents of a directory (and its\n"
+			+ "                         subdirectories) missing on the beagle\n"
+			+ "Options:\n"
+			+ "  --address address      connect to the beagle with the given bluetooth address\n"
+			+ "  --host host[:port]     connect to an emulated beagle (default port 7331)\n"
+			+ "  --depth n              number of pages sent ahead of acknowledgements\n"
+			+ "  --no-cache             do not use the page cache\n"
+			+ "  --level n              compression level of rendered pages (0-9)\n"
+			+ "  --strategy s           compression strategy (default, filtered, huffman)\n"
+			+ "  --native-zlib          compress with the JDK zlib instead of jzlib\n"
+			+ "  --output dir           directory for converted books (default: next to the source)\n"
+			+ "  --prune                let sync delete books of removed or changed documents\n"
+			+ "  --verbose              report upload progress on standard error";
+
+	/** Values of --strategy, indexed by the {@link BeagleDeflater} constants */
+	private static final List<String> STRATEGIES = Arrays.asList("default",
+			"filtered", "huffman");
+
+	private final PrintStream out;
+	private final PrintStream err;
+	private String address;
+	private String host;
+	private int port = 7331;
+	private int depth = 1;
+	private boolean cache = true;
+	private boolean verbose;
+	private boolean prune;
+	private boolean nativeZlib;
+	private int level = BeagleDeflater.DEFAULT_COMPRESSION;
+	private int strategy = BeagleDeflater.DEFAULT_STRATEGY;
+	private File output;
+	private BeagleDiscovery discovery;
+
+	public BeagleCli(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Executes a command line
+	 * 
+	 * @param args
+	 *            options, command and arguments
+	 * @return exit code
+	 */
+	public int run(String[] args) {
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("--"); i++) {
+				if ("--address".equals(args[i]) && i + 1 < args.length)
+					address = args[++i];
+				else if ("--host".equals(args[i]) && i + 1 < args.length) {
+					host = args[++i];
+					int colon = host.lastIndexOf(':');
+					if (colon != -1) {
+						port = Integer.parseInt(host.substring(colon + 1));
+						host = host.substring(0, colon);
+					}
+					if (port < 1 || port > 65535)
+						return usage("Invalid port " + port);
+				}
+				else if ("--depth".equals(args[i]) && i + 1 < args.length)
+					depth = Integer.parseInt(args[++i]);
+				else if ("--level".equals(args[i]) && i + 1 < args.length)
+					level = Integer.parseInt(args[++i]);
+				else if ("--strategy".equals(args[i]) && i + 1 < args.length) {
+					strategy = STRATEGIES.indexOf(args[++i]);
+					if (strategy == -1)
+						return usage("Unknown strategy " + args[i]);
+				} else if ("--native-zlib".equals(args[i]))
+					nativeZlib = true;
+				else if ("--output".equals(args[i]) && i + 1 < args.length)
+					output = new File(args[++i]);
+				else if ("--no-cache".equals(args[i]))
+					cache = false;
+				else if ("--verbose".equals(args[i]))
+					verbose = true;
+				else if ("--prune".equals(args[i]))
+					prune = true;
+				else
+					return usage("Unknown option " + args[i]);
+			}
+		} catch (NumberFormatException e) {
+			return usage("Invalid number " + args[i]);
+		}
+		if (depth < 1)
+			return usage("Pipeline depth must be at least 1");
+		if (level < -1 || level > 9)
+			return usage("Compression level must be between 0 and 9");
+		if (i == args.length)
+			return usage(null);
+		BeagleCompressor.setDefaultCompression(nativeZlib, level, strategy);
+		String command = args[i];
+		List<String> arguments = Arrays.asList(args).subList(i + 1,
+				args.length);
+
+		if (!Arrays.asList("list", "info", "upload", "delete", "convert",
+				"sync").contains(command))
+			return usage("Unknown command " + command);
+		if ((command.equals("upload") || command.equals("delete") || command
+				.equals("convert")) && arguments.isEmpty())
+			return usage("Missing arguments for " + command);
+		if ((command.equals("list") || command.equals("info"))
+				&& !arguments.isEmpty())
+			return usage("Unexpected arguments for " + command);
+		if (command.equals("sync") && arguments.size() != 1)
+			return usage("sync expects one directory");
+		if (command.equals("sync") && !new File(arguments.get(0)).isDirectory()) {
+			err.println("Directory not found: " + arguments.get(0));
+			return ERROR;
+		}
+
+		List<File> files = new ArrayList<File>();
+		if (command.equals("upload") || command.equals("convert")) {
+			for (String name : arguments) {
+				File file = new File(name);
+				if (file.isDirectory()) {
+					List<File> documents = listDocuments(file,
+							command.equals("upload"));
+					if (documents.isEmpty()
+							&& DirectoryPageSource.containsImages(file))
+						files.add(file);
+					else
+						files.addAll(documents);
+				} else if (file.isFile())
+					files.add(file);
+				else {
+					err.println("File not found: " + name);
+					return ERROR;
+				}
+			}
+		}
+		if (command.equals("convert"))
+			return convert(files);
+
+		BeagleConnector beagle;
+		try {
+			discovery = createDiscovery();
+			beagle = discovery.connect();
+		} catch (IOException e) {
+			err.println("Could not connect: " + e.getMessage());
+			return NOT_FOUND;
+		}
+		if (beagle == null) {
+			err.println("No beagle found");
+			return NOT_FOUND;
+		}
+		try {
+			beagle.setPipelineDepth(depth);
+			if (command.equals("list"))
+				list(beagle);
+			else if (command.equals("info"))
+				info(beagle);
+			else if (command.equals("upload"))
+				upload(beagle, files);
+			else if (command.equals("sync"))
+				sync(beagle, new File(arguments.get(0)));
+			else
+				delete(beagle, arguments);
+			return OK;
+		} catch (IOException e) {
+			err.println("Error: " + e.getMessage());
+			return ERROR;
+		} finally {
+			try {
+				beagle.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Creates the discovery used to connect (and to reconnect during
+	 * uploads) according to the options
+	 */
+	private BeagleDiscovery createDiscovery() {
+		if (host != null)
+			return new BeagleDiscovery(null) {
+				@Override
+				public synchronized BeagleConnector connect()
+						throws IOException {
+					try {
+						return new BeagleConnector(new SocketTransport(host,
+								port));
+					} catch (ConnectException e) {
+						return null;
+					}
+				}
+			};
+		if (address != null)
+			return new BeagleDiscovery(null) {
+				@Override
+				public synchronized BeagleConnector connect() {
+					try {
+						return new BeagleConnector(
+								RfcommTransport.connect(address));
+					} catch (IOException e) {
+						return null;
+					}
+				}
+			};
+		return new BeagleDiscovery();
+	}
+
+	private void list(BeagleConnector beagle) throws IOException {
+		for (BeagleBook book : beagle.listBooks())
+			out.println(book.getId() + "\t" + clean(book.getTitle()) + "\t"
+					+ clean(book.getAuthor()) + "\t" + book.getCurrentPage()
+					+ "\t" + book.getFirstPage() + "\t" + book.getLastPage());
+	}
+
+	private void info(BeagleConnector beagle) throws IOException {
+		for (Map.Entry<String, String> entry : new TreeMap<String, String>(
+				beagle.getInfo()).entrySet())
+			out.println(entry.getKey() + "\t" + clean(entry.getValue()));
+	}
+
+	private void upload(BeagleConnector beagle, List<File> files)
+			throws IOException {
+		if (beagle.getPartnerId() == null)
+			beagle.setPartnerId(Long.toHexString(new Random().nextLong())
+					.toUpperCase());
+		BeagleUploadSession session = new BeagleUploadSession(beagle,
+				discovery, BeagleJournal.getDefault());
+		try {
+			uploadDocuments(session, files);
+		} finally {
+			if (session.getBeagle() != beagle)
+				session.getBeagle().close();
+		}
+	}
+
+	private void sync(BeagleConnector beagle, File directory)
+			throws IOException {
+		if (beagle.getPartnerId() == null)
+			beagle.setPartnerId(Long.toHexString(new Random().nextLong())
+					.toUpperCase());
+		BeagleUploadSession session = new BeagleUploadSession(beagle,
+				discovery, BeagleJournal.getDefault());
+		try {
+			BeagleSync sync = BeagleSync.forDirectory(directory);
+			sync.setPrune(prune);
+			UploadListener listener = new UploadListener();
+			BeagleSync.Result result = sync.sync(session,
+					cache ? BeaglePageCache.getDefault() : null, listener);
+			listener.finished();
+			for (String id : result.getDeleted())
+				out.println(id + "\tDELETED");
+			if (verbose)
+				err.println(result.getUnchanged() + " unchanged, "
+						+ result.getUploaded().size() + " uploaded, "
+						+ result.getDeleted().size() + " deleted");
+		} finally {
+			if (session.getBeagle() != beagle)
+				session.getBeagle().close();
+		}
+	}
+
+	private void uploadDocuments(BeagleUploadSession session, List<File> files)
+			throws IOException {
+		if (files.isEmpty())
+			return;
+		UploadListener listener = new UploadListener();
+		new BeagleUploadScheduler(session, cache ? BeaglePageCache
+				.getDefault() : null,
+				BeagleUploadScheduler.DEFAULT_MEMORY_LIMIT).upload(files,
+				listener);
+		listener.finished();
+	}
+
+	private int convert(List<File> files) {
+		if (output != null && !output.isDirectory() && !output.mkdirs()) {
+			err.println("Could not create " + output);
+			return ERROR;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.lastIndexOf('.') > 0)
+				name = name.substring(0, name.lastIndexOf('.'));
+			File bundle = new File(output != null ? output
+					: file.getAbsoluteFile().getParentFile(), name
+					+ BeagleBundle.SUFFIX);
+			try {
+				if (verbose)
+					err.println("Converting " + file);
+				BeagleBundle.convert(file, bundle, null);
+				out.println(bundle.getPath() + "\t" + file.getPath());
+			} catch (IOException e) {
+				err.println("Error: " + file + ": " + e.getMessage());
+				return ERROR;
+			}
+		}
+		return OK;
+	}
+
+	/**
+	 * Prints every book when its upload has been completed
+	 */
+	private class UploadListener implements BatchListener, ReconnectListener {
+		private BeagleUpload current;
+
+		public void bookStarted(BeagleUpload upload, int index, int count) {
+			finished();
+			current = upload;
+			if (verbose)
+				err.println("Uploading " + upload.getFile() + " ("
+						+ (index + 1) + " of " + count + ")");
+		}
+
+		public void pageUploaded(PageStatistics page, UploadStatistics upload) {
+			if (verbose)
+				err.println(page);
+		}
+
+		public void progressChanged(int page, int count) {
+		}
+
+		public void connectionLost(IOException cause) {
+			err.println("Connection lost: " + cause.getMessage());
+		}
+
+		public void retrying(int attempt, long delay) {
+			if (verbose)
+				err.println("No beagle found, retrying in " + (delay + 999)
+						/ 1000 + " s");
+		}
+
+		public void reconnected(BeagleConnector beagle) {
+			err.println("Reconnected, continuing after page "
+					+ current.getAcknowledgedPage());
+		}
+
+		void finished() {
+			if (current != null)
+				out.println(current.getId() + "\t" + current.getPageCount()
+						+ "\t" + current.getFile().getPath());
+			current = null;
+		}
+	}
+
+	private void delete(BeagleConnector beagle, List<String> ids)
+			throws IOException {
+		int failed = 0;
+		for (Map.Entry<String, Boolean> result : beagle.deleteBooks(ids)
+				.entrySet()) {
+			out.println(result.getKey() + "\t"
+					+ (result.getValue() ? "OK" : "ERROR"));
+			if (!result.getValue())
+				failed++;
+		}
+		if (failed > 0)
+			throw new IOException("Could not delete " + failed + " of "
+					+ ids.size() + " books");
+	}
+
+	private static List<File> listDocuments(File directory, boolean bundles) {
+		List<File> ret = new ArrayList<File>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files)
+				if (file.isFile()
+						&& (isDocument(file) || bundles
+								&& file.getName().toLowerCase()
+										.endsWith(BeagleBundle.SUFFIX)))
+					ret.add(file);
+		}
+		return ret;
+	}
+
+	private static boolean isDocument(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".pdf") || name.endsWith(CbzPageSource.SUFFIX);
+	}
+
+	private static String clean(String value) {
+		if (value == null)
+			return "";
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private int usage(String message) {
+		if (message != null)
+			err.println(message);
+		err.println(USAGE_TEXT);
+		return USAGE;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.exit(new BeagleCli(System.out, System.err).run(args));
+	}
+}
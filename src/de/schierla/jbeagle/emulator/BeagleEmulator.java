@@ -0,0 +1,693 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.emulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import de.schierla.jbeagle.BeagleCompressor;
+import de.schierla.jbeagle.transport.BeagleTransport;
+import de.schierla.jbeagle.transport.SocketTransport;
+
+/**
+ * Headless emulation of a txtr beagle in bluetooth mode, speaking the
+ * protocol used by {@link de.schierla.jbeagle.BeagleConnector}. Every page
+ * received is inflated and checked. Bandwidth, latency and jitter of the
+ * link can be simulated.
+ */
+public class BeagleEmulator {
+
+	private static final Charset ascii = Charset.forName("US-ASCII");
+
+	private final File directory;
+	private final Map<String, Book> books = new LinkedHashMap<String, Book>();
+	private String partnerId;
+	private int revision;
+
+	private int bandwidth;
+	private int latency;
+	private int jitter;
+	private boolean verbose;
+	private final Random random = new Random();
+
+	private static class Book {
+		String id;
+		String title = "";
+		String author = "";
+		SortedMap<Integer, byte[]> pages = new TreeMap<Integer, byte[]>();
+	}
+
+	/**
+	 * Creates an emulator keeping its books in memory
+	 */
+	public BeagleEmulator() {
+		this.directory = null;
+	}
+
+	/**
+	 * Creates an emulator storing its books in a directory
+	 * 
+	 * @param directory
+	 *            directory to load the books from and store them in
+	 * @throws IOException
+	 *             if the directory cannot be read
+	 */
+	public BeagleEmulator(File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+		load();
+	}
+
+	/**
+	 * Limits the rate data is received with
+	 * 
+	 * @param bytesPerSecond
+	 *            bandwidth in bytes per second (0 for unlimited)
+	 */
+	public void setBandwidth(int bytesPerSecond) {
+		this.bandwidth = bytesPerSecond;
+	}
+
+	/**
+	 * Delays every response
+	 * 
+	 * @param latency
+	 *            delay in milliseconds
+	 * @param jitter
+	 *            maximum additional random delay in milliseconds
+	 */
+	public void setLatency(int latency, int jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Sets whether received books and closed connections are reported on
+	 * standard error
+	 * 
+	 * @param verbose
+	 *            true to report
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Serves one connection until it is closed
+	 * 
+	 * @param transport
+	 *            connection to a {@link de.schierla.jbeagle.BeagleConnector}
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	public void serve(BeagleTransport transport) throws IOException {
+		InputStream raw = transport.getInputStream();
+		if (bandwidth > 0)
+			raw = new ThrottledInputStream(raw, bandwidth);
+		PushbackInputStream in = new PushbackInputStream(raw, 65536);
+		Responder out = new Responder(transport.getOutputStream());
+		Book book = null;
+		long start = 0;
+		int received = 0;
+
+		try {
+			for (String line = readLine(in); line != null; line = readLine(in)) {
+				String command = line, argument = "";
+				if (line.indexOf(' ') != -1) {
+					command = line.substring(0, line.indexOf(' '));
+					argument = line.substring(line.indexOf(' ') + 1);
+				}
+
+				if ("INFO".equals(command)) {
+					out.respond("FIRMWARE BUILDDATE=2013-01-01 GIT=emulator IAP=0 ID=0 BLUETOOTH=0",
+							"DEVICE BDADDR=000000000000 SERIAL=EMULATOR DISPLAY=600x800",
+							"PROTOCOL VERSION=1", "SDCONTENT REVISION="
+									+ getRevision(), "INFOOK");
+				} else if ("GETPARTNER".equals(command)) {
+					String partner = getPartnerId();
+					out.respond(partner == null ? "NOPARTNER" : "PARTNER ID="
+							+ partner);
+				} else if ("PARTNER".equals(command)) {
+					setPartnerId(getValue(argument, "ID"));
+					out.respond("PARTNEROK");
+				} else if ("GETBOOKS".equals(command)) {
+					out.respond(listBooks());
+				} else if ("BOOK".equals(command)) {
+					String id = getValue(argument, "ID");
+					if (id == null || !id.matches("[0-9A-Fa-f]{16}")) {
+						out.respond("ERROR");
+						continue;
+					}
+					book = openBook(id);
+					start = System.currentTimeMillis();
+					received = 0;
+					out.respond("BOOKOK");
+				} else if ("TITLE".equals(command) && book != null) {
+					book.title = argument;
+					out.respond("TITLEOK");
+				} else if ("AUTHOR".equals(command) && book != null) {
+					book.author = argument;
+					out.respond("AUTHOROK");
+				} else if ("PAGE".equals(command)) {
+					byte[] page;
+					try {
+						page = readPage(in);
+					} catch (MalformedPageException e) {
+						log("Closing connection: " + e.getMessage());
+						out.respond("PAGEERROR");
+						break;
+					}
+					int nr = getPageNumber(argument);
+					if (book == null || page == null || nr == -1) {
+						out.respond("PAGEERROR");
+					} else {
+						addPage(book, nr, page);
+						received++;
+						out.respond("PAGEOK");
+					}
+				} else if ("UTILITYPAGE".equals(command)) {
+					byte[] page;
+					try {
+						page = readPage(in);
+					} catch (MalformedPageException e) {
+						log("Closing connection: " + e.getMessage());
+						out.respond("PAGEERROR");
+						break;
+					}
+					out.respond(page == null ? "PAGEERROR" : "PAGEOK");
+				} else if ("ENDBOOK".equals(command) && book != null) {
+					closeBook(book);
+					long time = Math.max(1, System.currentTimeMillis() - start);
+					log("Received " + received + " pages of " + book.id + " in "
+							+ time + " ms (" + (received * 1000f / time)
+							+ " pages/s)");
+					book = null;
+					out.respond("ENDBOOKOK");
+				} else if ("DELETEBOOK".equals(command)) {
+					out.respond(deleteBook(getValue(argument, "ID")) ? "DELETEBOOKOK"
+							: "DELETEBOOKERROR");
+				} else if ("VIRGIN".equals(command)) {
+					virgin();
+					out.respond("VIRGINOK");
+				} else {
+					out.respond("ERROR");
+				}
+			}
+		} finally {
+			try {
+				out.close();
+			} finally {
+				transport.close();
+			}
+		}
+	}
+
+	private void log(String message) {
+		if (verbose)
+			System.err.println(message);
+	}
+
+	/**
+	 * @return the page number given as argument; -1, if it is no valid page
+	 *         number
+	 */
+	private static int getPageNumber(String argument) {
+		try {
+			return Math.max(-1, Integer.parseInt(argument.trim()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String getValue(String argument, String key) {
+		for (String part : argument.split(" "))
+			if (part.startsWith(key + "="))
+				return part.substring(key.length() + 1);
+		return null;
+	}
+
+	/**
+	 * Sends responses after the configured latency without delaying the
+	 * processing of further commands (like a link with propagation delay)
+	 */
+	private class Responder {
+		private final OutputStream out;
+		private final ExecutorService sender = Executors
+				.newSingleThreadExecutor();
+		private long due;
+		private IOException failure;
+
+		Responder(OutputStream out) {
+			this.out = out;
+		}
+
+		void respond(String... lines) throws IOException {
+			synchronized (this) {
+				if (failure != null)
+					throw failure;
+			}
+			StringBuilder response = new StringBuilder();
+			for (String line : lines)
+				response.append(line).append('\n');
+			final byte[] data = response.toString().getBytes(ascii);
+			int delay = latency + (jitter > 0 ? random.nextInt(jitter + 1) : 0);
+			due = Math.max(due, System.currentTimeMillis() + delay);
+			final long time = due;
+
+			sender.execute(new Runnable() {
+				public void run() {
+					try {
+						long wait = time - System.currentTimeMillis();
+						if (wait > 0)
+							Thread.sleep(wait);
+						out.write(data);
+						out.flush();
+					} catch (InterruptedException e) {
+						fail(new InterruptedIOException());
+					} catch (IOException e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		private synchronized void fail(IOException e) {
+			if (failure == null)
+				failure = e;
+		}
+
+		void close() throws IOException {
+			sender.shutdown();
+			try {
+				sender.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder ret = new StringBuilder();
+		for (int c = in.read(); c != '\n'; c = in.read()) {
+			if (c == -1)
+				return ret.length() == 0 ? null : ret.toString();
+			if (c != '\r')
+				ret.append((char) c);
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Reads a gzip compressed page, consuming exactly the bytes of the gzip
+	 * stream
+	 * 
+	 * @return the compressed page; null, if it is a complete gzip stream but
+	 *         no valid beagle page
+	 * @throws MalformedPageException
+	 *             if the end of the gzip stream cannot be determined, so the
+	 *             connection cannot be continued
+	 */
+	private static byte[] readPage(PushbackInputStream in) throws IOException {
+		ByteArrayOutputStream page = new ByteArrayOutputStream();
+		DataInputStream data = new DataInputStream(in);
+		byte[] header = new byte[10];
+		data.readFully(header);
+		page.write(header);
+		if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b
+				|| header[2] != 8)
+			throw new MalformedPageException("no gzip header");
+		int flags = header[3];
+		if ((flags & 4) != 0) { // extra field
+			int length = data.readUnsignedByte() | data.readUnsignedByte() << 8;
+			page.write(length & 0xff);
+			page.write(length >> 8);
+			for (int i = 0; i < length; i++)
+				page.write(data.readUnsignedByte());
+		}
+		for (int flag = 8; flag <= 16; flag += 8) { // file name, comment
+			if ((flags & flag) != 0) {
+				for (int c = data.readUnsignedByte(); c != 0; c = data
+						.readUnsignedByte())
+					page.write(c);
+				page.write(0);
+			}
+		}
+		if ((flags & 2) != 0) { // header crc
+			page.write(data.readUnsignedByte());
+			page.write(data.readUnsignedByte());
+		}
+
+		Inflater inflater = new Inflater(true);
+		byte[] input = new byte[4096];
+		byte[] output = new byte[BeagleCompressor.RAW_SIZE + 1];
+		int length = 0, remaining;
+		CRC32 crc = new CRC32();
+		try {
+			while (!inflater.finished()) {
+				if (inflater.needsInput()) {
+					// never block for data beyond what is already available,
+					// the next command may only be sent after the response
+					int len = in.read(input, 0, Math.max(1,
+							Math.min(input.length, in.available())));
+					if (len == -1)
+						throw new EOFException();
+					inflater.setInput(input, 0, len);
+					page.write(input, 0, len);
+				}
+				if (length == output.length)
+					throw new MalformedPageException("page too large");
+				int len = inflater.inflate(output, length, output.length
+						- length);
+				crc.update(output, length, len);
+				length += len;
+				if (len == 0 && inflater.needsDictionary())
+					throw new MalformedPageException("dictionary required");
+			}
+			remaining = inflater.getRemaining();
+		} catch (DataFormatException e) {
+			throw new MalformedPageException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		byte[] bytes = page.toByteArray();
+		in.unread(bytes, bytes.length - remaining, remaining);
+
+		byte[] trailer = new byte[8];
+		data.readFully(trailer);
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		ret.write(bytes, 0, bytes.length - remaining);
+		ret.write(trailer);
+
+		if (readInt(trailer, 0) != (int) crc.getValue()
+				|| readInt(trailer, 4) != length
+				|| length != BeagleCompressor.RAW_SIZE)
+			return null;
+		return ret.toByteArray();
+	}
+
+	/**
+	 * Signals a page whose compressed data cannot be delimited
+	 */
+	private static class MalformedPageException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public MalformedPageException(String message) {
+			super(message);
+		}
+	}
+
+	private static int readInt(byte[] data, int pos) {
+		return (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8
+				| (data[pos + 2] & 0xff) << 16 | (data[pos + 3] & 0xff) << 24;
+	}
+
+	private synchronized int getRevision() {
+		return revision;
+	}
+
+	private synchronized String getPartnerId() {
+		return partnerId;
+	}
+
+	private synchronized void setPartnerId(String partnerId) {
+		this.partnerId = partnerId;
+	}
+
+	private synchronized String[] listBooks() {
+		String[] ret = new String[books.size() + 1];
+		int i = 0;
+		for (Book book : books.values()) {
+			int lastPage = book.pages.isEmpty() ? 0 : book.pages.lastKey();
+			ret[i++] = "BOOK ID=" + book.id + " FIRSTPAGE=0 LASTPAGE="
+					+ lastPage + " CURRENTPAGE=0 AUTHOR=" + book.author
+					+ " TITLE=" + book.title;
+		}
+		ret[i] = "GETBOOKSOK";
+		return ret;
+	}
+
+	private synchronized Book openBook(String id) {
+		Book book = books.get(id);
+		if (book == null) {
+			book = new Book();
+			book.id = id;
+			books.put(id, book);
+		}
+		revision++;
+		return book;
+	}
+
+	private synchronized void addPage(Book book, int nr, byte[] page)
+			throws IOException {
+		book.pages.put(nr, page);
+		if (directory != null) {
+			File dir = new File(directory, book.id);
+			dir.mkdirs();
+			write(new File(dir, nr + ".page"), page);
+		}
+	}
+
+	private synchronized void closeBook(Book book) throws IOException {
+		revision++;
+		if (directory != null) {
+			File dir = new File(directory, book.id);
+			dir.mkdirs();
+			Properties info = new Properties();
+			info.setProperty("title", book.title);
+			info.setProperty("author", book.author);
+			FileOutputStream out = new FileOutputStream(new File(dir,
+					"book.properties"));
+			try {
+				info.store(out, null);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private synchronized boolean deleteBook(String id) {
+		Book book = books.remove(id);
+		if (book == null)
+			return false;
+		revision++;
+		if (directory != null)
+			delete(new File(directory, id));
+		return true;
+	}
+
+	private synchronized void virgin() {
+		for (Iterator<String> it = books.keySet().iterator(); it.hasNext();) {
+			String id = it.next();
+			if (directory != null)
+				delete(new File(directory, id));
+			it.remove();
+		}
+		partnerId = null;
+		revision++;
+	}
+
+	private void load() throws IOException {
+		File[] dirs = directory.listFiles();
+		if (dirs == null)
+			throw new IOException("Could not read directory " + directory);
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files == null)
+				continue;
+			Book book = new Book();
+			book.id = dir.getName();
+			for (File file : files) {
+				String name = file.getName();
+				if ("book.properties".equals(name)) {
+					Properties info = new Properties();
+					FileInputStream in = new FileInputStream(file);
+					try {
+						info.load(in);
+					} finally {
+						in.close();
+					}
+					book.title = info.getProperty("title", "");
+					book.author = info.getProperty("author", "");
+				} else if (name.endsWith(".page")) {
+					byte[] page = new byte[(int) file.length()];
+					DataInputStream in = new DataInputStream(
+							new FileInputStream(file));
+					try {
+						in.readFully(page);
+					} finally {
+						in.close();
+					}
+					book.pages.put(Integer.parseInt(name.substring(0,
+							name.length() - 5)), page);
+				}
+			}
+			books.put(book.id, book);
+		}
+	}
+
+	private static void write(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		dir.delete();
+	}
+
+	/**
+	 * Input stream delivering data no faster than the given bandwidth
+	 */
+	private static class ThrottledInputStream extends InputStream {
+		private final InputStream in;
+		private final int bandwidth;
+		private long available = System.nanoTime();
+
+		ThrottledInputStream(InputStream in, int bandwidth) {
+			this.in = in;
+			this.bandwidth = bandwidth;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int ret = in.read();
+			if (ret != -1)
+				delay(1);
+			return ret;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int ret = in.read(b, off, Math.min(len, Math.max(1, bandwidth / 100)));
+			if (ret > 0)
+				delay(ret);
+			return ret;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return in.available();
+		}
+
+		private void delay(int bytes) throws IOException {
+			long now = System.nanoTime();
+			available = Math.max(available, now) + bytes * 1000000000L
+					/ bandwidth;
+			long wait = (available - now) / 1000000;
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs an emulated beagle listening for TCP connections
+	 * 
+	 * @param args
+	 *            [--port n] [--dir directory] [--bandwidth bytes/s]
+	 *            [--latency ms] [--jitter ms]
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = 7331, bandwidth = 0, latency = 0, jitter = 0;
+		File dir = null;
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				if (i + 1 == args.length)
+					usage();
+				else if ("--port".equals(args[i]))
+					port = Integer.parseInt(args[i + 1]);
+				else if ("--dir".equals(args[i]))
+					dir = new File(args[i + 1]);
+				else if ("--bandwidth".equals(args[i]))
+					bandwidth = Integer.parseInt(args[i + 1]);
+				else if ("--latency".equals(args[i]))
+					latency = Integer.parseInt(args[i + 1]);
+				else if ("--jitter".equals(args[i]))
+					jitter = Integer.parseInt(args[i + 1]);
+				else
+					usage();
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+
+		final BeagleEmulator emulator = dir == null ? new BeagleEmulator()
+				: new BeagleEmulator(dir);
+		emulator.setBandwidth(bandwidth);
+		emulator.setLatency(latency, jitter);
+		emulator.setVerbose(true);
+
+		ServerSocket server = new ServerSocket(port);
+		System.err.println("Emulated beagle listening on port " + port);
+		while (true) {
+			final Socket socket = server.accept();
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						emulator.serve(new SocketTransport(socket));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}).start();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: BeagleEmulator [--port n] [--dir directory] "
+				+ "[--bandwidth bytes/s] [--latency ms] [--jitter ms]");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte stream connection the beagle protocol is spoken over
+ */
+public interface BeagleTransport {
+
+	/**
+	 * @return stream of data received from the beagle
+	 * @throws IOException
+	 */
+	InputStream getInputStream() throws IOException;
+
+	/**
+	 * @return stream of data sent to the beagle
+	 * @throws IOException
+	 */
+	OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Closes the connection
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
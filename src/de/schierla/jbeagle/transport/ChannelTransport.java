@@ -0,0 +1,137 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP connection using a blocking NIO socket channel, passing all data
+ * through direct buffers
+ */
+public class ChannelTransport implements BeagleTransport {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final SocketChannel channel;
+	private final InputStream input;
+	private final OutputStream output;
+
+	public ChannelTransport(SocketChannel channel) throws IOException {
+		this.channel = channel;
+		channel.configureBlocking(true);
+		channel.socket().setTcpNoDelay(true);
+		this.input = new ChannelInputStream();
+		this.output = new ChannelOutputStream();
+	}
+
+	/**
+	 * Connects to the given host and port
+	 * 
+	 * @param host
+	 *            host name
+	 * @param port
+	 *            TCP port
+	 * @throws IOException
+	 *             if the connection cannot be established
+	 */
+	public ChannelTransport(String host, int port) throws IOException {
+		this(SocketChannel.open(new InetSocketAddress(host, port)));
+	}
+
+	public InputStream getInputStream() {
+		return input;
+	}
+
+	public OutputStream getOutputStream() {
+		return output;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private class ChannelInputStream extends InputStream {
+		private final ByteBuffer buffer = ByteBuffer
+				.allocateDirect(BUFFER_SIZE);
+
+		ChannelInputStream() {
+			buffer.flip();
+		}
+
+		private boolean fill() throws IOException {
+			if (buffer.hasRemaining())
+				return true;
+			buffer.clear();
+			int len = channel.read(buffer);
+			buffer.flip();
+			return len > 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	private class ChannelOutputStream extends OutputStream {
+		private final ByteBuffer buffer = ByteBuffer
+				.allocateDirect(BUFFER_SIZE);
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int chunk = Math.min(len, buffer.capacity());
+				buffer.clear();
+				buffer.put(b, off, chunk);
+				buffer.flip();
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				off += chunk;
+				len -= chunk;
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory connection between two endpoints in the same process
+ */
+public class PipeTransport implements BeagleTransport {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final Pipe in;
+	private final Pipe out;
+
+	private PipeTransport(Pipe in, Pipe out) {
+		this.in = in;
+		this.out = out;
+	}
+
+	/**
+	 * Creates two connected endpoints
+	 * 
+	 * @return array of two transports, data written to one of them can be
+	 *         read from the other one
+	 */
+	public static PipeTransport[] createPair() {
+		Pipe a = new Pipe(), b = new Pipe();
+		return new PipeTransport[] { new PipeTransport(a, b),
+				new PipeTransport(b, a) };
+	}
+
+	public InputStream getInputStream() {
+		return in.input;
+	}
+
+	public OutputStream getOutputStream() {
+		return out.output;
+	}
+
+	public void close() {
+		in.close();
+		out.close();
+	}
+
+	/**
+	 * Bounded ring buffer with blocking stream views
+	 */
+	private static class Pipe {
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int start, length;
+		private boolean closed;
+
+		synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		synchronized int available() {
+			return length;
+		}
+
+		synchronized int read(byte[] b, int off, int len) throws IOException {
+			try {
+				while (length == 0 && !closed)
+					wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (length == 0)
+				return -1;
+			len = Math.min(len, Math.min(length, buffer.length - start));
+			System.arraycopy(buffer, start, b, off, len);
+			start = (start + len) % buffer.length;
+			length -= len;
+			notifyAll();
+			return len;
+		}
+
+		synchronized void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				try {
+					while (length == buffer.length && !closed)
+						wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				if (closed)
+					throw new IOException("Pipe closed");
+				int end = (start + length) % buffer.length;
+				int chunk = Math.min(len, Math.min(buffer.length - length,
+						buffer.length - end));
+				System.arraycopy(b, off, buffer, end, chunk);
+				length += chunk;
+				off += chunk;
+				len -= chunk;
+				notifyAll();
+			}
+		}
+
+		final InputStream input = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return Pipe.this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				return Pipe.this.read(b, off, len);
+			}
+
+			@Override
+			public int available() {
+				return Pipe.this.available();
+			}
+
+			@Override
+			public void close() {
+				Pipe.this.close();
+			}
+		};
+
+		final OutputStream output = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				Pipe.this.write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				Pipe.this.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				Pipe.this.close();
+			}
+		};
+	}
+}
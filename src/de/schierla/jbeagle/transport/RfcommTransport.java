@@ -0,0 +1,72 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.StreamConnection;
+
+/**
+ * Bluetooth RFCOMM connection (serial port profile) using bluecove
+ */
+public class RfcommTransport implements BeagleTransport {
+
+	private final StreamConnection connection;
+	private final InputStream input;
+	private final OutputStream output;
+
+	public RfcommTransport(StreamConnection connection) throws IOException {
+		this.connection = connection;
+		this.input = connection.openInputStream();
+		this.output = connection.openOutputStream();
+	}
+
+	/**
+	 * Connects to the serial port service of a bluetooth device
+	 * 
+	 * @param address
+	 *            bluetooth address of the device
+	 * @return the connection
+	 * @throws IOException
+	 *             if the connection cannot be established
+	 */
+	public static RfcommTransport connect(String address) throws IOException {
+		return new RfcommTransport((StreamConnection) Connector.open("btspp://"
+				+ address + ":1;authenticate=false;encrypt=false;master=false"));
+	}
+
+	public InputStream getInputStream() {
+		return input;
+	}
+
+	public OutputStream getOutputStream() {
+		return output;
+	}
+
+	public void close() throws IOException {
+		try {
+			input.close();
+			output.close();
+		} finally {
+			connection.close();
+		}
+	}
+}
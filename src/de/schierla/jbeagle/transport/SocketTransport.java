@@ -0,0 +1,62 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * TCP connection using a plain socket
+ */
+public class SocketTransport implements BeagleTransport {
+
+	private final Socket socket;
+
+	public SocketTransport(Socket socket) throws IOException {
+		this.socket = socket;
+		socket.setTcpNoDelay(true);
+	}
+
+	/**
+	 * Connects to the given host and port
+	 * 
+	 * @param host
+	 *            host name
+	 * @param port
+	 *            TCP port
+	 * @throws IOException
+	 *             if the connection cannot be established
+	 */
+	public SocketTransport(String host, int port) throws IOException {
+		this(new Socket(host, port));
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -26,13 +26,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import javax.swing.DefaultListModel;
+import javax.swing.AbstractListModel;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -40,6 +44,7 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
@@ -48,9 +53,21 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileFilter;
 
 import de.schierla.jbeagle.BeagleBook;
+import de.schierla.jbeagle.BeagleBundle;
 import de.schierla.jbeagle.BeagleConnector;
-import de.schierla.jbeagle.BeagleUtil;
-import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+import de.schierla.jbeagle.BeagleConnector.BookListener;
+import de.schierla.jbeagle.BeagleDiscovery;
+import de.schierla.jbeagle.BeagleDiscovery.RetryListener;
+import de.schierla.jbeagle.BeagleJournal;
+import de.schierla.jbeagle.BeaglePageCache;
+import de.schierla.jbeagle.BeagleUpload;
+import de.schierla.jbeagle.BeagleUploadScheduler;
+import de.schierla.jbeagle.BeagleUploadScheduler.BatchListener;
+import de.schierla.jbeagle.BeagleUploadSession;
+import de.schierla.jbeagle.BeagleUploadSession.ReconnectListener;
+import de.schierla.jbeagle.CbzPageSource;
+import de.schierla.jbeagle.PageStatistics;
+import de.schierla.jbeagle.UploadStatistics;
 
 public class JBeagle extends JFrame {
 	private static final long serialVersionUID = -3803590812601005122L;
@@ -58,7 +75,8 @@ public class JBeagle extends JFrame {
 	JButton upload, delete;
 	BeagleBook book;
 	private JList<BeagleBook> books;
-	private DefaultListModel<BeagleBook> beagleBooks = new DefaultListModel<BeagleBook>();
+	private BookListModel beagleBooks = new BookListModel();
+	private final List<BeagleBook> receivedBooks = new ArrayList<BeagleBook>();
 	private BeagleConnector beagle;
 	private JLabel progress;
 	private JPanel panel;
@@ -83,9 +101,11 @@ public class JBeagle extends JFrame {
 		panel.add(progress);
 
 		books = new JList<BeagleBook>(beagleBooks);
+		books.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 		books.setBorder(new EmptyBorder(5, 5, 5, 5));
 		books.addListSelectionListener(new ListSelectionListener() {
 			public void valueChanged(ListSelectionEvent arg0) {
+				// details show the first selected book
 				if (books.getSelectedIndex() == -1)
 					book = null;
 				else
@@ -207,9 +227,13 @@ public class JBeagle extends JFrame {
 		pool.execute(new Runnable() {
 			public void run() {
 				try {
-					while (beagle == null) {
-						beagle = BeagleUtil.searchForBeagle();
-					}
+					beagle = new BeagleDiscovery()
+							.waitForBeagle(new RetryListener() {
+								public void retrying(int attempt, long delay) {
+									showProgress("No beagle found, retrying in "
+											+ (delay + 999) / 1000 + " s...");
+								}
+							});
 					if (beagle.getPartnerId() == null) {
 						showProgress("Setting partner id...");
 						beagle.setPartnerId(Long.toHexString(
@@ -218,6 +242,8 @@ public class JBeagle extends JFrame {
 					updateBooks();
 				} catch (IOException e) {
 					showProgress("Error: " + e.getMessage());
+				} catch (InterruptedException e) {
+					showProgress("Error: " + e.getMessage());
 				}
 			}
 		});
@@ -239,13 +265,15 @@ public class JBeagle extends JFrame {
 		fc.setFileFilter(new FileFilter() {
 			@Override
 			public String getDescription() {
-				return "PDF documents";
+				return "Books (PDF, CBZ, beaglebook)";
 			}
 
 			@Override
 			public boolean accept(File file) {
-				return file.isDirectory()
-						|| file.getName().toLowerCase().endsWith(".pdf");
+				String name = file.getName().toLowerCase();
+				return file.isDirectory() || name.endsWith(".pdf")
+						|| name.endsWith(CbzPageSource.SUFFIX)
+						|| name.endsWith(BeagleBundle.SUFFIX);
 			}
 		});
 
@@ -259,15 +287,14 @@ public class JBeagle extends JFrame {
 		pool.execute(new Runnable() {
 			public void run() {
 				try {
-					for (File file : files) {
-						BeagleUtil.uploadPDF(beagle, file, new ProgressListener() {
-							public void progressChanged(int page, int count) {
-								showProgress("Uploading page " + page + " of "
-										+ count + "...");
-							}
-						});					
-						updateBooks();
-					}
+					BeagleUploadSession session = new BeagleUploadSession(
+							beagle, new BeagleDiscovery(), BeagleJournal
+									.getDefault());
+					new BeagleUploadScheduler(session, BeaglePageCache
+							.getDefault(),
+							BeagleUploadScheduler.DEFAULT_MEMORY_LIMIT).upload(
+							Arrays.asList(files), new UploadProgress());
+					updateBooks();
 				} catch (IOException ex) {
 					showProgress("Error: " + ex.getMessage());
 					ex.printStackTrace();
@@ -276,22 +303,72 @@ public class JBeagle extends JFrame {
 		});
 	}
 
+	/**
+	 * Shows the upload progress, following the upload to a new connection
+	 * after a reconnect
+	 */
+	private class UploadProgress implements BatchListener, ReconnectListener {
+		private String book = "";
+		private String rate = "";
+
+		public void bookStarted(BeagleUpload upload, int index, int count) {
+			book = count == 1 ? "" : "book " + (index + 1) + " of " + count
+					+ ", ";
+			rate = "";
+		}
+
+		public void pageUploaded(PageStatistics page, UploadStatistics upload) {
+			long eta = upload.getEstimatedTimeRemaining();
+			if (eta >= 0)
+				rate = String.format(" (%.1f pages/s, %d:%02d left)",
+						upload.getPagesPerSecond(), eta / 60000,
+						eta / 1000 % 60);
+		}
+
+		public void progressChanged(int page, int count) {
+			showProgress("Uploading " + book + "page " + page + " of " + count
+					+ rate + "...");
+		}
+
+		public void connectionLost(IOException cause) {
+			showProgress("Connection lost, searching for beagle...");
+		}
+
+		public void retrying(int attempt, long delay) {
+			showProgress("Connection lost, retrying in " + (delay + 999)
+					/ 1000 + " s...");
+		}
+
+		public void reconnected(BeagleConnector beagle) {
+			JBeagle.this.beagle = beagle;
+		}
+	}
+
 	protected void deleteBook() {
 		if (beagle == null)
 			return;
-		if (book == null)
+		List<String> ids = new ArrayList<String>();
+		for (int index : books.getSelectedIndices())
+			ids.add(beagleBooks.get(index).getId());
+		if (ids.isEmpty())
 			return;
-		deleteBookAsync(book.getId());
+		deleteBooksAsync(ids);
 	}
 
-	private void deleteBookAsync(final String id) {
-		showProgress("Deleting book...");
+	private void deleteBooksAsync(final List<String> ids) {
+		showProgress(ids.size() == 1 ? "Deleting book..." : "Deleting "
+				+ ids.size() + " books...");
 
 		pool.execute(new Runnable() {
 			public void run() {
 				try {
-					beagle.deleteBook(id);
+					Map<String, Boolean> deleted = beagle.deleteBooks(ids);
 					updateBooks();
+					int failed = Collections.frequency(deleted.values(),
+							Boolean.FALSE);
+					if (failed > 0)
+						showProgress("Could not delete " + failed + " of "
+								+ ids.size() + " books");
 				} catch (IOException e) {
 					showProgress("Error: " + e.getMessage());
 					e.printStackTrace();
@@ -303,10 +380,14 @@ public class JBeagle extends JFrame {
 	private void updateBooks() {
 		try {
 			showProgress("Retrieving books...");
-			final List<BeagleBook> bookList = beagle.listBooks();
 			SwingUtilities.invokeLater(new Runnable() {
 				public void run() {
-					setBooks(bookList);
+					setBooks(Collections.<BeagleBook> emptyList());
+				}
+			});
+			beagle.getCatalog().getBooks(new BookListener() {
+				public void bookListed(BeagleBook book) {
+					addBook(book);
 				}
 			});
 			showProgress("Done");
@@ -315,6 +396,28 @@ public class JBeagle extends JFrame {
 		}
 	}
 
+	/**
+	 * Appends a book to the list, collecting books received while the event
+	 * dispatch thread is busy so that they are added at once
+	 */
+	private void addBook(BeagleBook book) {
+		synchronized (receivedBooks) {
+			receivedBooks.add(book);
+			if (receivedBooks.size() > 1)
+				return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				List<BeagleBook> books;
+				synchronized (receivedBooks) {
+					books = new ArrayList<BeagleBook>(receivedBooks);
+					receivedBooks.clear();
+				}
+				beagleBooks.addAll(books);
+			}
+		});
+	}
+
 	private void showProgress(final String text) {
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
@@ -325,8 +428,7 @@ public class JBeagle extends JFrame {
 
 	private void setBooks(java.util.List<BeagleBook> books) {
 		beagleBooks.clear();
-		for (BeagleBook book : books)
-			beagleBooks.addElement(book);
+		beagleBooks.addAll(books);
 		selectBook(null);
 	}
 
@@ -344,4 +446,40 @@ public class JBeagle extends JFrame {
 		new JBeagle();
 	}
 
+	/**
+	 * List model adding several books with a single event
+	 */
+	private static class BookListModel extends AbstractListModel<BeagleBook> {
+		private static final long serialVersionUID = 1L;
+		private final List<BeagleBook> books = new ArrayList<BeagleBook>();
+
+		public int getSize() {
+			return books.size();
+		}
+
+		public BeagleBook getElementAt(int index) {
+			return books.get(index);
+		}
+
+		public BeagleBook get(int index) {
+			return books.get(index);
+		}
+
+		public void addAll(List<BeagleBook> added) {
+			if (added.isEmpty())
+				return;
+			int index = books.size();
+			books.addAll(added);
+			fireIntervalAdded(this, index, books.size() - 1);
+		}
+
+		public void clear() {
+			if (books.isEmpty())
+				return;
+			int size = books.size();
+			books.clear();
+			fireIntervalRemoved(this, 0, size - 1);
+		}
+	}
+
 }
@@ -3,13 +3,17 @@ package de.schierla.jbeagle.ui;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 
+import de.schierla.jbeagle.BeagleCompressor;
+
 public class PagePreview extends JFrame {
 	private static final long serialVersionUID = -6978851161012882305L;
 	BufferedImage im = null;
+	private BeagleCompressor compressor = new BeagleCompressor();
 
 	public PagePreview(String title) {
 		super(title);
@@ -34,20 +38,17 @@ public class PagePreview extends JFrame {
 	}
 
 	public void showPage(BufferedImage page) {
-		this.im = page;
-		int[] pixels = im.getRGB(0, 0, 600, 800, null, 0, 600);
-		for (int i = 0; i < pixels.length; i++) {
-			int gray = four_bits((pixels[i] >> 16) & 0xff,
-					(pixels[i] >> 8) & 0xff, (pixels[i]) & 0xff);
-			pixels[i] = gray * 0x111111 + 0xFF000000;
+		BufferedImage preview = new BufferedImage(600, 800,
+				BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) preview.getRaster().getDataBuffer())
+				.getData();
+		byte[] raw = compressor.pack(page);
+		for (int i = 0; i < pixels.length / 2; i++) {
+			pixels[2 * i] = ((raw[i] >> 4) & 0xf) * 0x111111;
+			pixels[2 * i + 1] = (raw[i] & 0xf) * 0x111111;
 		}
-		im.setRGB(0, 0, 600, 800, pixels, 0, 600);
+		this.im = preview;
 		repaint();
 	}
 
-	private static int four_bits(int r, int g, int b) {
-		int gray = (int) (r * 0.2126 + g * 0.7152 + b * 0.0722);
-		return (gray & 0xE0) / 0x10;
-	}
-
 }
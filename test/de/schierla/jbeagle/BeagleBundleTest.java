@@ -0,0 +1,119 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link BeagleBundle} rejects inconsistent page indexes
+ */
+public class BeagleBundleTest {
+
+	private File images;
+	private File bundle;
+	private long index;
+
+	@Before
+	public void setUp() throws IOException {
+		images = File.createTempFile("images", "");
+		images.delete();
+		images.mkdir();
+		for (int i = 0; i < 2; i++)
+			ImageIO.write(new BufferedImage(60, 80,
+					BufferedImage.TYPE_INT_RGB), "png", new File(images,
+					"page" + i + ".png"));
+		bundle = File.createTempFile("book", BeagleBundle.SUFFIX);
+		BeagleBundle.convert(images, bundle, null);
+
+		RandomAccessFile raf = new RandomAccessFile(bundle, "r");
+		try {
+			raf.seek(12);
+			for (int i = 0; i < 3; i++)
+				raf.skipBytes(raf.readUnsignedShort());
+			assertEquals(2, raf.readInt());
+			index = raf.getFilePointer();
+		} finally {
+			raf.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : images.listFiles())
+			file.delete();
+		images.delete();
+		bundle.delete();
+	}
+
+	@Test
+	public void validBundleCanBeOpened() throws IOException {
+		BeagleBundle book = BeagleBundle.open(bundle);
+		assertEquals(2, book.getPageCount());
+		assertEquals(BeagleCompressor.RAW_SIZE, BeagleCompressor.decode(
+				toArray(book.getPage(0))).length);
+	}
+
+	@Test
+	public void pageInsideHeaderIsRejected() throws IOException {
+		setOffset(0, index);
+		assertInvalid();
+	}
+
+	@Test
+	public void pageBeyondEndIsRejected() throws IOException {
+		setOffset(3, bundle.length() + 1);
+		assertInvalid();
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] ret = new byte[buffer.remaining()];
+		buffer.get(ret);
+		return ret;
+	}
+
+	private void setOffset(int nr, long offset) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(bundle, "rw");
+		try {
+			raf.seek(index + nr * 8);
+			raf.writeLong(offset);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void assertInvalid() {
+		try {
+			BeagleBundle.open(bundle);
+			fail("Invalid bundle opened");
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.schierla.jbeagle.BeagleConnector.BookListener;
+import de.schierla.jbeagle.emulator.BeagleEmulator;
+import de.schierla.jbeagle.transport.PipeTransport;
+
+/**
+ * Checks that {@link BeagleCatalog} notices changes by other connections
+ */
+public class BeagleCatalogTest {
+
+	private static final String OWN = "0000000000000001";
+	private static final String OTHER = "0000000000000002";
+
+	@Test
+	public void externalDeleteAfterOwnChangeIsNoticed() throws Exception {
+		BeagleEmulator emulator = new BeagleEmulator();
+		EmulatedBeagle beagle = new EmulatedBeagle(emulator);
+		EmulatedBeagle other = new EmulatedBeagle(emulator);
+		try {
+			upload(beagle.connector, OTHER);
+			upload(beagle.connector, OWN);
+			BeagleCatalog catalog = beagle.connector.getCatalog();
+			assertNotNull(catalog.getBook(OTHER));
+
+			beagle.connector.deleteBook(OWN);
+			other.connector.deleteBook(OTHER);
+			assertNull(catalog.getBook(OWN));
+			assertNull(catalog.getBook(OTHER));
+		} finally {
+			other.close();
+			beagle.close();
+		}
+	}
+
+	@Test
+	public void ownChangesNeedNoListing() throws Exception {
+		final PipeTransport[] pair = PipeTransport.createPair();
+		Thread server = new Thread(new Runnable() {
+			public void run() {
+				try {
+					new BeagleEmulator().serve(pair[0]);
+				} catch (IOException e) {
+					// closed by the test
+				}
+			}
+		});
+		server.setDaemon(true);
+		server.start();
+		final int[] listings = new int[1];
+		BeagleConnector beagle = new BeagleConnector(pair[1]) {
+			@Override
+			public void listBooks(BookListener listener) throws IOException {
+				listings[0]++;
+				super.listBooks(listener);
+			}
+		};
+		try {
+			BeagleCatalog catalog = beagle.getCatalog();
+			assertEquals(0, catalog.getBooks().size());
+			upload(beagle, OWN);
+			upload(beagle, OTHER);
+			beagle.deleteBook(OTHER);
+			assertEquals(1, catalog.getBooks().size());
+			assertEquals(1, catalog.getBook(OWN).getLastPage());
+			assertEquals(1, listings[0]);
+		} finally {
+			beagle.close();
+			server.join(5000);
+		}
+	}
+
+	private static void upload(BeagleConnector beagle, String id)
+			throws Exception {
+		byte[] page = new BeagleCompressor().encode(new BufferedImage(600,
+				800, BufferedImage.TYPE_INT_RGB));
+		beagle.uploadBook(id, "Title", "Author");
+		beagle.uploadPage(0, page);
+		beagle.uploadPage(1, page);
+		beagle.endBook();
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Checks the reuse of compressed content for uniform and repeated pages
+ */
+public class BeagleCompressorTest {
+
+	@Test
+	public void blankPdfPagesReuseContent() throws Exception {
+		File file = File.createTempFile("blank", ".pdf");
+		try {
+			writeBlankPdf(file, 4);
+			BeagleRenderPool pool = new BeagleRenderPool(file, "Author",
+					"Title", 1, 5, 1, null, null);
+			try {
+				byte[] first = BeagleCompressor.decode(pool.take(1));
+				assertFalse(pool.getStatistics(1).isReused());
+				for (int nr = 2; nr <= 4; nr++) {
+					byte[] page = BeagleCompressor.decode(pool.take(nr));
+					assertTrue("page " + nr, pool.getStatistics(nr)
+							.isReused());
+					// same content, but the progress bar has grown
+					assertArrayEquals(Arrays.copyOf(first,
+							BeagleCompressor.CONTENT_SIZE), Arrays.copyOf(
+							page, BeagleCompressor.CONTENT_SIZE));
+					assertFalse(Arrays.equals(first, page));
+				}
+			} finally {
+				pool.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void cachedPagesDependOnCompressionSettings() throws Exception {
+		File file = File.createTempFile("blank", ".pdf");
+		File directory = File.createTempFile("cache", "");
+		directory.delete();
+		try {
+			writeBlankPdf(file, 1);
+			BeaglePageCache cache = new BeaglePageCache(directory,
+					Long.MAX_VALUE);
+			String document = BeaglePageCache.hash(file);
+			assertFalse(isCached(file, cache, document));
+			assertTrue(isCached(file, cache, document));
+			BeagleCompressor.setDefaultCompression(false, 1,
+					BeagleDeflater.FILTERED);
+			assertFalse(isCached(file, cache, document));
+			BeagleCompressor.setDefaultCompression(true, 1,
+					BeagleDeflater.FILTERED);
+			assertFalse(isCached(file, cache, document));
+			assertTrue(isCached(file, cache, document));
+		} finally {
+			BeagleCompressor.setDefaultCompression(false,
+					BeagleDeflater.DEFAULT_COMPRESSION,
+					BeagleDeflater.DEFAULT_STRATEGY);
+			for (File entry : directory.listFiles())
+				entry.delete();
+			directory.delete();
+			file.delete();
+		}
+	}
+
+	/** renders the first page, returns whether it came from the cache */
+	private static boolean isCached(File file, BeaglePageCache cache,
+			String document) throws Exception {
+		BeagleRenderPool pool = new BeagleRenderPool(file, "Author", "Title",
+				1, 2, 1, cache, document);
+		try {
+			pool.take(1);
+			return pool.getStatistics(1).isCached();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void uniformContentIsReusedAboveProgressBar() throws IOException {
+		BeagleCompressor compressor = new BeagleCompressor();
+		for (int nr = 0; nr < 10; nr++) {
+			BufferedImage image = BeagleRenderer.layoutPage(createImage(false),
+					nr, 10, Collections.singletonList(5));
+			byte[] expected = compressor.pack(image).clone();
+			byte[] page = compressor.encode(image);
+			assertTrue("page " + nr, compressor.isContentReused() == nr > 0);
+			assertArrayEquals(expected, BeagleCompressor.decode(page));
+		}
+	}
+
+	@Test
+	public void repeatedContentIsReusedFromMemo() throws IOException {
+		BeagleCompressor.PageMemo memo = new BeagleCompressor.PageMemo(4);
+		BeagleCompressor first = new BeagleCompressor();
+		BeagleCompressor second = new BeagleCompressor();
+		first.setMemo(memo);
+		second.setMemo(memo);
+		BufferedImage image = createImage(true);
+		for (int nr = 1; nr < 4; nr++) {
+			BeagleCompressor compressor = nr == 2 ? second : first;
+			BufferedImage page = BeagleRenderer.layoutPage(image, nr, 10,
+					Collections.<Integer> emptyList());
+			byte[] expected = compressor.pack(page).clone();
+			byte[] compressed = compressor.encode(page);
+			// compressed when seen, reused from the third occurrence on
+			assertTrue("page " + nr, compressor.isContentReused() == nr > 2);
+			assertArrayEquals(expected, BeagleCompressor.decode(compressed));
+		}
+	}
+
+	@Test
+	public void otherPagesAreSingleStreams() throws IOException {
+		BeagleCompressor compressor = new BeagleCompressor();
+		compressor.setMemo(new BeagleCompressor.PageMemo(4));
+		BufferedImage page = BeagleRenderer.layoutPage(createImage(true), 1,
+				10, Collections.<Integer> emptyList());
+		byte[] raw = compressor.pack(page).clone();
+		byte[] expected = new byte[BeagleCompressor.MAX_COMPRESSED_SIZE];
+		int length = new JZlibDeflater().compress(raw,
+				BeagleCompressor.RAW_SIZE, expected, 0);
+		assertArrayEquals(Arrays.copyOf(expected, length), compressor
+				.encode(page));
+	}
+
+	@Test
+	public void uniformPagesWithoutProgressBarDecode() throws IOException {
+		BeagleCompressor compressor = new BeagleCompressor();
+		for (Color color : Arrays.asList(Color.WHITE, Color.BLACK,
+				Color.GRAY, Color.WHITE)) {
+			BufferedImage image = new BufferedImage(600, 800,
+					BufferedImage.TYPE_INT_RGB);
+			Graphics g = image.getGraphics();
+			g.setColor(color);
+			g.fillRect(0, 0, 600, 800);
+			g.dispose();
+			byte[] expected = compressor.pack(image).clone();
+			assertArrayEquals(expected, BeagleCompressor.decode(compressor
+					.encode(image)));
+		}
+	}
+
+	private static BufferedImage createImage(boolean content) {
+		BufferedImage image = new BufferedImage(300, 400,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics g = image.getGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 300, 400);
+		if (content) {
+			g.setColor(Color.BLACK);
+			g.drawString("Chapter 1", 100, 200);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/** writes a PDF document consisting of empty pages */
+	private static void writeBlankPdf(File file, int pages) throws IOException {
+		StringBuilder pdf = new StringBuilder("%PDF-1.4\n");
+		int[] offsets = new int[pages + 3];
+		offsets[1] = pdf.length();
+		pdf.append("1 0 obj << /Type /Catalog /Pages 2 0 R >> endobj\n");
+		offsets[2] = pdf.length();
+		pdf.append("2 0 obj << /Type /Pages /Kids [");
+		for (int i = 0; i < pages; i++)
+			pdf.append(i + 3).append(" 0 R ");
+		pdf.append("] /Count ").append(pages).append(" >> endobj\n");
+		for (int i = 0; i < pages; i++) {
+			offsets[i + 3] = pdf.length();
+			pdf.append(i + 3).append(" 0 obj << /Type /Page /Parent 2 0 R")
+					.append(" /MediaBox [0 0 612 792] >> endobj\n");
+		}
+		int xref = pdf.length();
+		pdf.append("xref\n0 ").append(pages + 3)
+				.append("\n0000000000 65535 f \n");
+		for (int i = 1; i < offsets.length; i++)
+			pdf.append(String.format("%010d 00000 n \n", offsets[i]));
+		pdf.append("trailer << /Size ").append(pages + 3)
+				.append(" /Root 1 0 R >>\nstartxref\n").append(xref)
+				.append("\n%%EOF\n");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(pdf.toString().getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+}
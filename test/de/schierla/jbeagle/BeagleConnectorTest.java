@@ -0,0 +1,223 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.schierla.jbeagle.emulator.BeagleEmulator;
+import de.schierla.jbeagle.transport.BeagleTransport;
+import de.schierla.jbeagle.transport.PipeTransport;
+
+/**
+ * Checks the protocol handling of {@link BeagleConnector} against the
+ * emulator
+ */
+public class BeagleConnectorTest {
+
+	@Test
+	public void rejectedPipelinedPageIsResentInOrder() throws Exception {
+		final PipeTransport[] pair = PipeTransport.createPair();
+		// the beagle rejects the second page once
+		final ResponseFilter filter = new ResponseFilter(pair[0]
+				.getOutputStream(), "PAGE", 2, "PAGEERROR");
+		Thread server = serve(new BeagleTransport() {
+			public InputStream getInputStream() {
+				return pair[0].getInputStream();
+			}
+
+			public OutputStream getOutputStream() {
+				return filter;
+			}
+
+			public void close() {
+				pair[0].close();
+			}
+		});
+		BeagleConnector beagle = new BeagleConnector(pair[1]);
+		try {
+			beagle.setPipelineDepth(4);
+			beagle.uploadBook("0123456789ABCDEF", "Title", "Author");
+			byte[] page = new BeagleCompressor().encode(new BufferedImage(600,
+					800, BufferedImage.TYPE_INT_RGB));
+			int last = -1;
+			for (int i = 0; i < 6; i++) {
+				beagle.uploadPage(i, page);
+				assertTrue(beagle.getLastAcknowledgedPage() >= last);
+				last = beagle.getLastAcknowledgedPage();
+			}
+			beagle.endBook();
+			assertEquals(5, beagle.getLastAcknowledgedPage());
+			assertEquals(1, beagle.getEffectivePipelineDepth());
+			// six pages, then the rejected one and the three pages in
+			// flight behind it again
+			assertEquals(10, filter.count);
+		} finally {
+			beagle.close();
+			server.join(5000);
+		}
+	}
+
+	@Test
+	public void unexpectedPageResponseFails() throws Exception {
+		final PipeTransport[] pair = PipeTransport.createPair();
+		final ResponseFilter filter = new ResponseFilter(pair[0]
+				.getOutputStream(), "PAGE", 2, "GARBAGE");
+		Thread server = serve(new BeagleTransport() {
+			public InputStream getInputStream() {
+				return pair[0].getInputStream();
+			}
+
+			public OutputStream getOutputStream() {
+				return filter;
+			}
+
+			public void close() {
+				pair[0].close();
+			}
+		});
+		BeagleConnector beagle = new BeagleConnector(pair[1]);
+		try {
+			beagle.setPipelineDepth(4);
+			beagle.uploadBook("0123456789ABCDEF", "Title", "Author");
+			byte[] page = new BeagleCompressor().encode(new BufferedImage(600,
+					800, BufferedImage.TYPE_INT_RGB));
+			try {
+				for (int i = 0; i < 6; i++)
+					beagle.uploadPage(i, page);
+				beagle.flushPages();
+				fail("Invalid response accepted");
+			} catch (IOException e) {
+				assertEquals("Invalid response GARBAGE", e.getMessage());
+			}
+			// nothing is resent on a connection out of step
+			assertEquals(0, beagle.getLastAcknowledgedPage());
+			assertTrue(filter.count <= 6);
+		} finally {
+			beagle.close();
+			server.join(5000);
+		}
+	}
+
+	@Test
+	public void unexpectedDeleteResponseKeepsConnectionUsable()
+			throws Exception {
+		final PipeTransport[] pair = PipeTransport.createPair();
+		final ResponseFilter filter = new ResponseFilter(pair[0]
+				.getOutputStream(), "DELETEBOOK", 1, "GARBAGE");
+		Thread server = serve(new BeagleTransport() {
+			public InputStream getInputStream() {
+				return pair[0].getInputStream();
+			}
+
+			public OutputStream getOutputStream() {
+				return filter;
+			}
+
+			public void close() {
+				pair[0].close();
+			}
+		});
+		BeagleConnector beagle = new BeagleConnector(pair[1]);
+		try {
+			try {
+				beagle.deleteBooks(Arrays.asList("0000000000000001",
+						"0000000000000002", "0000000000000003"));
+				fail("Invalid response accepted");
+			} catch (IOException e) {
+				assertEquals("Invalid response GARBAGE", e.getMessage());
+			}
+			assertEquals(3, filter.count);
+			assertNull(beagle.getPartnerId());
+		} finally {
+			beagle.close();
+			server.join(5000);
+		}
+	}
+
+	private static Thread serve(final BeagleTransport transport) {
+		Thread server = new Thread(new Runnable() {
+			public void run() {
+				try {
+					new BeagleEmulator().serve(transport);
+				} catch (IOException e) {
+					// closed by the test
+				}
+			}
+		});
+		server.setDaemon(true);
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Counts the responses of the emulator starting with a prefix, replacing
+	 * one of them
+	 */
+	private static class ResponseFilter extends OutputStream {
+		private final OutputStream out;
+		private final String prefix;
+		private final int reject;
+		private final String replacement;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int count;
+
+		ResponseFilter(OutputStream out, String prefix, int reject,
+				String replacement) {
+			this.out = out;
+			this.prefix = prefix;
+			this.reject = reject;
+			this.replacement = replacement;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			if (b != '\n') {
+				line.write(b);
+				return;
+			}
+			String response = line.toString("US-ASCII");
+			line.reset();
+			if (response.startsWith(prefix) && ++count == reject)
+				response = replacement;
+			out.write((response + "\n").getBytes("US-ASCII"));
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (byte c : Arrays.copyOfRange(b, off, off + len))
+				write(c);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+/**
+ * Checks that every deflate implementation writes valid beagle pages
+ */
+public class BeagleDeflaterTest {
+
+	private static final int[] LEVELS = { BeagleDeflater.DEFAULT_COMPRESSION,
+			0, 1, 9 };
+	private static final int[] STRATEGIES = { BeagleDeflater.DEFAULT_STRATEGY,
+			BeagleDeflater.FILTERED, BeagleDeflater.HUFFMAN_ONLY };
+
+	private static List<BeagleDeflater> createDeflaters() {
+		List<BeagleDeflater> ret = new ArrayList<BeagleDeflater>();
+		for (int level : LEVELS)
+			for (int strategy : STRATEGIES) {
+				ret.add(new JZlibDeflater(level, strategy));
+				ret.add(new NativeDeflater(level, strategy));
+			}
+		return ret;
+	}
+
+	private static List<byte[]> createPages() {
+		BufferedImage text = new BufferedImage(600, 800,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics g = text.getGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 600, 800);
+		g.setColor(Color.BLACK);
+		g.setFont(new Font("Serif", Font.PLAIN, 14));
+		Random random = new Random(7);
+		for (int y = 20; y < 780; y += 18) {
+			char[] line = new char[70];
+			for (int i = 0; i < line.length; i++)
+				line[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random
+						.nextInt(26));
+			g.drawString(new String(line), 20, y);
+		}
+		g.dispose();
+		byte[] noise = new byte[BeagleCompressor.RAW_SIZE];
+		random.nextBytes(noise);
+		List<byte[]> ret = new ArrayList<byte[]>();
+		ret.add(new BeagleCompressor().pack(text).clone());
+		ret.add(noise);
+		ret.add(new byte[BeagleCompressor.RAW_SIZE]);
+		return ret;
+	}
+
+	@Test
+	public void pagesRoundTripThroughGzip() throws IOException {
+		byte[] target = new byte[BeagleCompressor.MAX_COMPRESSED_SIZE];
+		for (BeagleDeflater deflater : createDeflaters()) {
+			for (byte[] raw : createPages()) {
+				int length = deflater.compress(raw, raw.length, target, 0);
+				byte[] page = Arrays.copyOf(target, length);
+				assertArrayEquals(deflater.toString(), raw,
+						BeagleCompressor.decode(page));
+				assertArrayEquals(deflater.toString(), raw, gunzip(page));
+			}
+			deflater.close();
+		}
+	}
+
+	@Test
+	public void pagesRoundTripThroughRawInflater() throws Exception {
+		byte[] target = new byte[BeagleCompressor.MAX_COMPRESSED_SIZE + 16];
+		for (BeagleDeflater deflater : createDeflaters()) {
+			for (byte[] raw : createPages()) {
+				// the page may start anywhere in the target buffer
+				int length = deflater.compress(raw, raw.length, target, 16);
+				assertEquals(0x1f, target[16] & 0xff);
+				assertEquals(0x8b, target[17] & 0xff);
+				assertArrayEquals(deflater.toString(), raw,
+						inflate(target, 16 + 10, length - 18));
+			}
+			deflater.close();
+		}
+	}
+
+	@Test
+	public void emulatorAcceptsPages() throws Exception {
+		List<byte[]> pages = createPages();
+		for (BeagleDeflater deflater : Arrays.asList(new JZlibDeflater(),
+				new NativeDeflater(),
+				new NativeDeflater(9, BeagleDeflater.FILTERED))) {
+			EmulatedBeagle beagle = new EmulatedBeagle();
+			try {
+				beagle.connector.uploadBook("0123456789ABCDEF", "Test",
+						"Author");
+				byte[] target = new byte[BeagleCompressor.MAX_COMPRESSED_SIZE];
+				for (int i = 0; i < pages.size(); i++) {
+					byte[] raw = pages.get(i);
+					int length = deflater.compress(raw, raw.length, target, 0);
+					beagle.connector.uploadPage(i, Arrays.copyOf(target,
+							length));
+				}
+				beagle.connector.endBook();
+				BeagleBook book = beagle.connector.listBooks().get(0);
+				assertEquals(deflater.toString(), pages.size() - 1,
+						book.getLastPage());
+			} finally {
+				deflater.close();
+				beagle.close();
+			}
+		}
+	}
+
+	@Test
+	public void nativeDeflaterStaysWithinWindow() throws IOException {
+		// a block repeated at a distance of one window can only be
+		// compressed by matches reaching back further than the window
+		byte[] block = new byte[NativeDeflater.WINDOW_SIZE];
+		new Random(3).nextBytes(block);
+		byte[] raw = new byte[BeagleCompressor.RAW_SIZE];
+		for (int i = 0; i < raw.length; i += block.length)
+			System.arraycopy(block, 0, raw, i,
+					Math.min(block.length, raw.length - i));
+		byte[] target = new byte[BeagleCompressor.MAX_COMPRESSED_SIZE];
+		NativeDeflater deflater = new NativeDeflater(9,
+				BeagleDeflater.DEFAULT_STRATEGY);
+		int length = deflater.compress(raw, raw.length, target, 0);
+		deflater.close();
+		assertTrue("compressed to " + length, length >= raw.length);
+		assertArrayEquals(raw, BeagleCompressor.decode(Arrays.copyOf(target,
+				length)));
+	}
+
+	@Test
+	public void defaultCompressionSelectsImplementation() throws IOException {
+		BeagleCompressor.setDefaultCompression(true, 9,
+				BeagleDeflater.HUFFMAN_ONLY);
+		try {
+			BufferedImage image = createImage(createPages().get(0));
+			BeagleCompressor expected = new BeagleCompressor(
+					new NativeDeflater(9, BeagleDeflater.HUFFMAN_ONLY));
+			BeagleCompressor compressor = new BeagleCompressor();
+			assertArrayEquals(expected.encode(image), compressor.encode(image));
+			expected.close();
+			compressor.close();
+		} finally {
+			BeagleCompressor.setDefaultCompression(false,
+					BeagleDeflater.DEFAULT_COMPRESSION,
+					BeagleDeflater.DEFAULT_STRATEGY);
+		}
+	}
+
+	/** creates an image packing to the given page */
+	private static BufferedImage createImage(byte[] raw) {
+		BufferedImage image = new BufferedImage(600, 800,
+				BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < 800; y++)
+			for (int x = 0; x < 600; x++) {
+				int level = (raw[y * 300 + x / 2] >> (x % 2 == 0 ? 4 : 0)) & 0xf;
+				int v = level * 0x11;
+				image.setRGB(x, y, 0xff000000 | v << 16 | v << 8 | v);
+			}
+		assertArrayEquals(raw, new BeagleCompressor().pack(image));
+		return image;
+	}
+
+	private static byte[] gunzip(byte[] page) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(
+				page));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int len = in.read(buffer); len != -1; len = in.read(buffer))
+			out.write(buffer, 0, len);
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate(byte[] data, int offset, int length)
+			throws DataFormatException {
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(data, offset, length);
+		byte[] ret = new byte[BeagleCompressor.RAW_SIZE];
+		int count = inflater.inflate(ret);
+		assertTrue(inflater.finished());
+		inflater.end();
+		assertEquals(ret.length, count);
+		return ret;
+	}
+}
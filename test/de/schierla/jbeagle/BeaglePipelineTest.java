@@ -0,0 +1,68 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Checks that failing workers of a {@link BeaglePipeline} end the stage
+ */
+public class BeaglePipelineTest {
+
+	@Test(timeout = 10000)
+	public void errorInWorkerFailsConsumer() throws Exception {
+		BeaglePipeline<Integer> pipeline = new BeaglePipeline<Integer>(
+				"failing", 0, 4, 2, 4, Long.MAX_VALUE) {
+			{
+				start();
+			}
+
+			@Override
+			protected Worker<Integer> createWorker() {
+				return new Worker<Integer>() {
+					public Integer produce(int nr) {
+						if (nr == 1)
+							throw new StackOverflowError();
+						return nr;
+					}
+
+					public void close() {
+					}
+				};
+			}
+
+			@Override
+			protected long getSize(Integer item) {
+				return 1;
+			}
+		};
+		assertEquals(0, pipeline.take(0).intValue());
+		try {
+			pipeline.take(1);
+			fail("Item of a failed worker taken");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof StackOverflowError);
+		}
+	}
+}
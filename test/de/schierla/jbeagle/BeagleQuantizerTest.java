@@ -0,0 +1,117 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the integer quantizer is byte-identical to the original
+ * floating point conversion
+ */
+public class BeagleQuantizerTest {
+
+	private static final int[] TYPES = { BufferedImage.TYPE_4BYTE_ABGR,
+			BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_BYTE_GRAY,
+			BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+			BufferedImage.TYPE_USHORT_565_RGB };
+
+	/** the conversion used before the lookup tables */
+	private static int fourBits(int r, int g, int b) {
+		int gray = (int) (r * 0.2126 + g * 0.7152 + b * 0.0722);
+		return (gray & 0xE0) / 0x10;
+	}
+
+	@Test
+	public void levelMatchesFloatConversionForAllColors() {
+		for (int r = 0; r < 256; r++)
+			for (int g = 0; g < 256; g++)
+				for (int b = 0; b < 256; b++)
+					if (BeagleQuantizer.level(r, g, b) != fourBits(r, g, b))
+						assertEquals("level of " + r + "," + g + "," + b,
+								fourBits(r, g, b),
+								BeagleQuantizer.level(r, g, b));
+	}
+
+	@Test
+	public void levelMatchesFloatConversionOnBoundaries() {
+		int boundaries = 0;
+		for (int r = 0; r < 256; r++)
+			for (int g = 0; g < 256; g++)
+				for (int b = 0; b < 256; b++)
+					if ((2126 * r + 7152 * g + 722 * b) % 320000 == 0) {
+						boundaries++;
+						assertEquals("level of " + r + "," + g + "," + b,
+								fourBits(r, g, b),
+								BeagleQuantizer.level(r, g, b));
+						assertEquals(fourBits(r, g, b), BeagleQuantizer
+								.level(r << 16 | g << 8 | b));
+					}
+		// black and white are boundaries, as are many grays in between
+		assertTrue(boundaries > 2);
+	}
+
+	@Test
+	public void packedPagesMatchFloatConversion() {
+		Random random = new Random(42);
+		for (int type : TYPES) {
+			BufferedImage image = new BufferedImage(600, 800, type);
+			for (int y = 0; y < 800; y++)
+				for (int x = 0; x < 600; x++)
+					image.setRGB(x, y, 0xff000000 | random.nextInt(0x1000000));
+			assertArrayEquals("image type " + type, pack(image),
+					new BeagleCompressor().pack(image));
+		}
+	}
+
+	@Test
+	public void packedGrayRampMatchesFloatConversion() {
+		for (int type : TYPES) {
+			BufferedImage image = new BufferedImage(600, 800, type);
+			for (int y = 0; y < 800; y++)
+				for (int x = 0; x < 600; x++) {
+					int v = (x + y) & 0xff;
+					image.setRGB(x, y, 0xff000000 | v << 16 | v << 8 | v);
+				}
+			assertArrayEquals("image type " + type, pack(image),
+					new BeagleCompressor().pack(image));
+		}
+	}
+
+	/** packs a page pixel by pixel as before the quantizer was introduced */
+	private static byte[] pack(BufferedImage image) {
+		byte[] raw = new byte[BeagleCompressor.RAW_SIZE];
+		int i = 0;
+		for (int y = 0; y < 800; y++)
+			for (int x = 0; x < 600; x += 2) {
+				int rgb1 = image.getRGB(x, y), rgb2 = image.getRGB(x + 1, y);
+				int gray1 = fourBits((rgb1 >> 16) & 0xff, (rgb1 >> 8) & 0xff,
+						rgb1 & 0xff);
+				int gray2 = fourBits((rgb2 >> 16) & 0xff, (rgb2 >> 8) & 0xff,
+						rgb2 & 0xff);
+				raw[i++] = (byte) (gray2 | gray1 * 0x10);
+			}
+		return raw;
+	}
+}
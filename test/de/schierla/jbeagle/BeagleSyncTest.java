@@ -0,0 +1,112 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks which books {@link BeagleSync} uploads and prunes
+ */
+public class BeagleSyncTest {
+
+	private File directory;
+	private File manifest;
+	private EmulatedBeagle beagle;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("sync", "");
+		directory.delete();
+		directory.mkdir();
+		manifest = File.createTempFile("sync", ".properties");
+		manifest.delete();
+		beagle = new EmulatedBeagle();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		beagle.close();
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+		manifest.delete();
+	}
+
+	@Test
+	public void removedDocumentIsPrunedInALaterSync() throws IOException {
+		File first = writeComic("first", 0x000000);
+		writeComic("second", 0xffffff);
+		String id = BeagleUpload.getBookId(BeaglePageCache.hash(first));
+
+		BeagleSync.Result result = sync(false);
+		assertEquals(2, result.getUploaded().size());
+
+		// a sync without pruning must not forget the book
+		first.delete();
+		result = sync(false);
+		assertEquals(1, result.getUnchanged());
+		assertEquals(Collections.<String> emptyList(), result.getDeleted());
+
+		result = sync(true);
+		assertEquals(Arrays.asList(id), result.getDeleted());
+		assertEquals(1, beagle.connector.listBooks().size());
+
+		result = sync(true);
+		assertEquals(Collections.<String> emptyList(), result.getDeleted());
+	}
+
+	private BeagleSync.Result sync(boolean prune) throws IOException {
+		BeagleSync sync = new BeagleSync(directory, manifest);
+		sync.setPrune(prune);
+		return sync.sync(new BeagleUploadSession(beagle.connector, null,
+				null), null, null);
+	}
+
+	private File writeComic(String name, int color) throws IOException {
+		BufferedImage image = new BufferedImage(60, 80,
+				BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, color);
+		File file = new File(directory, name + CbzPageSource.SUFFIX);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			out.putNextEntry(new ZipEntry("page.png"));
+			ImageIO.write(image, "png", out);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.schierla.jbeagle.BeagleConnector.PageSource;
+import de.schierla.jbeagle.BeagleUtil.ProgressListener;
+import de.schierla.jbeagle.BeagleUploadSession.ReconnectListener;
+import de.schierla.jbeagle.emulator.BeagleEmulator;
+
+/**
+ * Checks that {@link BeagleUploadSession} continues uploads on a new
+ * connection and that {@link BeagleUpload} continues after the pages
+ * recorded in the {@link BeagleJournal}
+ */
+public class BeagleUploadSessionTest {
+
+	private static final String ID = "0123456789ABCDEF";
+	private static final String DOCUMENT = ID + "00000000000000000000";
+	private static final int PAGES = 8;
+
+	private File directory;
+	private BeagleEmulator emulator;
+	private BeagleJournal journal;
+	private final List<EmulatedBeagle> connections = new ArrayList<EmulatedBeagle>();
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("session", "");
+		directory.delete();
+		emulator = new BeagleEmulator(new File(directory, "beagle"));
+		journal = new BeagleJournal(new File(directory, "journal"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (EmulatedBeagle beagle : connections)
+			beagle.close();
+		delete(directory);
+	}
+
+	@Test(timeout = 10000)
+	public void droppedUploadContinuesOnNewConnection() throws Exception {
+		final EmulatedBeagle first = connect();
+		first.connector.setPipelineDepth(3);
+		final TestSource source = new TestSource(DOCUMENT) {
+			@Override
+			public ByteBuffer getCompressedPage(int nr) throws IOException {
+				if (nr == 5)
+					first.drop();
+				return super.getCompressedPage(nr);
+			}
+		};
+		final BeagleUpload upload = BeagleUpload.prepare(source,
+				new ArrayList<BeagleBook>(), journal);
+		final int[] journaled = { -2 };
+		BeagleUploadSession session = new BeagleUploadSession(
+				first.connector, new BeagleDiscovery(null) {
+					@Override
+					public synchronized BeagleConnector connect()
+							throws IOException {
+						return BeagleUploadSessionTest.this.connect().connector;
+					}
+				}, journal);
+		session.upload(upload, new TestListener() {
+			public void reconnected(BeagleConnector beagle) {
+				journaled[0] = journal.getAcknowledgedPage(ID, DOCUMENT);
+			}
+		});
+
+		// pages 3 and 4 were in flight and are sent again from memory
+		assertEquals(2, journaled[0]);
+		assertEquals(2, connections.size());
+		assertEquals(3, session.getBeagle().getPipelineDepth());
+		int[] once = new int[PAGES + 1];
+		Arrays.fill(once, 1);
+		assertArrayEquals(once, source.rendered);
+		for (int nr = 0; nr <= PAGES; nr++)
+			assertArrayEquals(page(nr), read(new File(directory, "beagle"
+					+ File.separator + ID + File.separator + nr + ".page")));
+		assertEquals(PAGES, session.getBeagle().listBooks().get(0)
+				.getLastPage());
+		assertEquals(-1, journal.getAcknowledgedPage(ID, DOCUMENT));
+		assertFalse(new File(directory, "journal" + File.separator + ID
+				+ ".journal").exists());
+	}
+
+	@Test(timeout = 10000)
+	public void uploadWithoutProgressGivesUp() throws Exception {
+		EmulatedBeagle first = connect();
+		first.drop();
+		BeagleUpload upload = BeagleUpload.prepare(new TestSource(DOCUMENT),
+				new ArrayList<BeagleBook>(), journal);
+		BeagleDiscovery discovery = new BeagleDiscovery(null) {
+			@Override
+			public synchronized BeagleConnector connect() throws IOException {
+				EmulatedBeagle beagle = BeagleUploadSessionTest.this.connect();
+				beagle.drop();
+				return beagle.connector;
+			}
+		};
+		BeagleUploadSession session = new BeagleUploadSession(
+				first.connector, discovery, journal);
+		session.setReconnectAttempts(1);
+		try {
+			session.upload(upload, null);
+			fail("Upload over lost connections completed");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1 + 3, connections.size());
+	}
+
+	@Test
+	public void uploadStartsAfterJournaledPage() {
+		List<BeagleBook> books = Arrays.asList(book(5));
+		assertEquals(5, prepare(books).getStartPage());
+
+		journal.pageAcknowledged(ID, DOCUMENT, 3);
+		assertEquals(4, prepare(books).getStartPage());
+
+		// pages the beagle lost are sent again
+		journal.pageAcknowledged(ID, DOCUMENT, 7);
+		assertEquals(6, prepare(books).getStartPage());
+
+		assertEquals(0, prepare(new ArrayList<BeagleBook>()).getStartPage());
+	}
+
+	@Test
+	public void journalOfOtherDocumentIsIgnored() {
+		journal.pageAcknowledged(ID, ID + "11111111111111111111", 3);
+		assertEquals(-1, journal.getAcknowledgedPage(ID, DOCUMENT));
+		assertEquals(5, prepare(Arrays.asList(book(5))).getStartPage());
+	}
+
+	@Test
+	public void journalIsReplacedByNextUpload() throws IOException {
+		journal.pageAcknowledged(ID, DOCUMENT, 7);
+		BeagleJournal next = new BeagleJournal(new File(directory, "journal"));
+		next.pageAcknowledged(ID, DOCUMENT, 2);
+		assertEquals(2, next.getAcknowledgedPage(ID, DOCUMENT));
+		next.pageAcknowledged(ID, DOCUMENT, 3);
+		assertEquals(3, journal.getAcknowledgedPage(ID, DOCUMENT));
+	}
+
+	private EmulatedBeagle connect() throws IOException {
+		EmulatedBeagle beagle = new EmulatedBeagle(emulator);
+		connections.add(beagle);
+		return beagle;
+	}
+
+	private BeagleUpload prepare(List<BeagleBook> books) {
+		return BeagleUpload.prepare(new TestSource(DOCUMENT), books, journal);
+	}
+
+	private static BeagleBook book(int lastPage) {
+		BeagleBook book = new BeagleBook(ID, "Author", "Title");
+		book.setLastPage(lastPage);
+		return book;
+	}
+
+	private static byte[] page(int nr) throws IOException {
+		byte[] raw = new byte[BeagleCompressor.RAW_SIZE];
+		Arrays.fill(raw, (byte) nr);
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(ret);
+		out.write(raw);
+		out.close();
+		return ret.toByteArray();
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] ret = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			for (int pos = 0; pos < ret.length;)
+				pos += in.read(ret, pos, ret.length - pos);
+		} finally {
+			in.close();
+		}
+		return ret;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	/**
+	 * Source counting how often every page has been prepared
+	 */
+	private static class TestSource implements PageSource {
+		final int[] rendered = new int[PAGES + 1];
+		private final String document;
+
+		TestSource(String document) {
+			this.document = document;
+		}
+
+		public File getFile() {
+			return null;
+		}
+
+		public String getId() {
+			return ID;
+		}
+
+		public String getDocument() {
+			return document;
+		}
+
+		public String getTitle() {
+			return "Title";
+		}
+
+		public String getAuthor() {
+			return "Author";
+		}
+
+		public int getPageCount() {
+			return PAGES;
+		}
+
+		public void start(int first) {
+		}
+
+		public ByteBuffer getCompressedPage(int nr) throws IOException {
+			rendered[nr]++;
+			return ByteBuffer.wrap(page(nr));
+		}
+
+		public PageStatistics getStatistics(int nr) {
+			return null;
+		}
+
+		public void close() {
+		}
+	}
+
+	/**
+	 * Listener ignoring everything but reconnects
+	 */
+	private abstract static class TestListener implements ProgressListener,
+			ReconnectListener {
+		public void progressChanged(int page, int count) {
+		}
+
+		public void retrying(int attempt, long delay) {
+		}
+
+		public void connectionLost(IOException cause) {
+		}
+	}
+}
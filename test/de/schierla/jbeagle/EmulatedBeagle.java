@@ -0,0 +1,68 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import java.io.IOException;
+
+import de.schierla.jbeagle.emulator.BeagleEmulator;
+import de.schierla.jbeagle.transport.PipeTransport;
+
+/**
+ * Connector talking to a {@link BeagleEmulator} over an in-memory pipe
+ */
+class EmulatedBeagle {
+
+	final BeagleEmulator emulator;
+	final BeagleConnector connector;
+	private final PipeTransport transport;
+	private final Thread server;
+
+	EmulatedBeagle() throws IOException {
+		this(new BeagleEmulator());
+	}
+
+	EmulatedBeagle(final BeagleEmulator emulator) throws IOException {
+		this.emulator = emulator;
+		final PipeTransport[] pair = PipeTransport.createPair();
+		transport = pair[0];
+		server = new Thread(new Runnable() {
+			public void run() {
+				try {
+					emulator.serve(pair[0]);
+				} catch (IOException e) {
+					// connection closed by the test
+				}
+			}
+		}, "emulated beagle");
+		server.setDaemon(true);
+		server.start();
+		connector = new BeagleConnector(pair[1]);
+	}
+
+	/**
+	 * Cuts the connection from the beagle's side, like a lost link
+	 */
+	void drop() {
+		transport.close();
+	}
+
+	void close() throws IOException, InterruptedException {
+		connector.close();
+		server.join(5000);
+	}
+}
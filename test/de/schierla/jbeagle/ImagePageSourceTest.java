@@ -0,0 +1,113 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the decoding and identification of image books
+ */
+public class ImagePageSourceTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("images", "");
+		directory.delete();
+		directory.mkdir();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	@Test
+	public void largeImagesAreSubsampled() throws IOException {
+		BufferedImage large = decode(write("large.png", 2400, 3300));
+		assertEquals(600, large.getWidth());
+		assertEquals(825, large.getHeight());
+		assertEquals(700, decode(write("small.png", 700, 900)).getWidth());
+		assertEquals(667, decode(write("wide.png", 2000, 500)).getWidth());
+	}
+
+	@Test
+	public void renamingOrSplittingChangesId() throws IOException {
+		write("a.png", 60, 80);
+		write("b.png", 60, 80);
+		String id = new DirectoryPageSource(directory, Long.MAX_VALUE)
+				.getId();
+		new File(directory, "b.png").renameTo(new File(directory, "c.png"));
+		assertFalse(id.equals(new DirectoryPageSource(directory,
+				Long.MAX_VALUE).getId()));
+
+		// same names and concatenated contents, split differently
+		File first = new File(directory, "x");
+		File second = new File(directory, "y");
+		writeBytes(first, "ab");
+		writeBytes(second, "c");
+		String hash = BeaglePageCache.hash(Arrays.asList(first, second));
+		writeBytes(first, "a");
+		writeBytes(second, "bc");
+		assertFalse(hash.equals(BeaglePageCache.hash(Arrays.asList(first,
+				second))));
+	}
+
+	private File write(String name, int width, int height) throws IOException {
+		File file = new File(directory, name);
+		ImageIO.write(new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB), "png", file);
+		return file;
+	}
+
+	private static void writeBytes(File file, String content)
+			throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static BufferedImage decode(File file) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		try {
+			return ImagePageSource.decode(in);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the option handling of {@link BeagleCli}
+ */
+public class BeagleCliTest {
+
+	@Test
+	public void invalidOptionsAreUsageErrors() {
+		String[][] lines = { { "--depth", "abc", "list" },
+				{ "--depth", "0", "list" }, { "--depth", "-1", "list" },
+				{ "--host", "localhost:abc", "list" },
+				{ "--host", "localhost:0", "list" },
+				{ "--level", "10", "list" }, { "--strategy", "best", "list" },
+				{ "--depth" }, { "list", "extra" } };
+		for (String[] line : lines) {
+			ByteArrayOutputStream err = new ByteArrayOutputStream();
+			int code = new BeagleCli(new PrintStream(
+					new ByteArrayOutputStream()), new PrintStream(err))
+					.run(line);
+			assertEquals(Arrays.toString(line), BeagleCli.USAGE, code);
+		}
+	}
+}
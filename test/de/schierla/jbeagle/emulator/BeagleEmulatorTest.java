@@ -0,0 +1,106 @@
+/*
+ * jBeagle - application for managing the txtr beagle
+ * Copyright 2013 Andreas Schierl
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.schierla.jbeagle.emulator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import de.schierla.jbeagle.BeagleCompressor;
+import de.schierla.jbeagle.transport.PipeTransport;
+
+/**
+ * Checks how the {@link BeagleEmulator} handles broken input
+ */
+public class BeagleEmulatorTest {
+
+	@Test
+	public void malformedPageClosesConnection() throws Exception {
+		PipeTransport client = serve();
+		try {
+			OutputStream out = client.getOutputStream();
+			out.write("BOOK ID=0123456789ABCDEF\nPAGE 1\nnot a page\nINFO\n"
+					.getBytes("US-ASCII"));
+			out.flush();
+			BufferedReader in = reader(client);
+			assertEquals("BOOKOK", in.readLine());
+			assertEquals("PAGEERROR", in.readLine());
+			// the rest of the page cannot be told from the next command
+			assertNull(in.readLine());
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void invalidArgumentsAreRejected() throws Exception {
+		byte[] page = new BeagleCompressor().encode(new BufferedImage(600,
+				800, BufferedImage.TYPE_INT_RGB));
+		PipeTransport client = serve();
+		try {
+			OutputStream out = client.getOutputStream();
+			BufferedReader in = reader(client);
+			out.write("BOOK\nBOOK ID=../../etc\nBOOK ID=0123456789ABCDEF\n"
+					.getBytes("US-ASCII"));
+			out.flush();
+			assertEquals("ERROR", in.readLine());
+			assertEquals("ERROR", in.readLine());
+			assertEquals("BOOKOK", in.readLine());
+			for (String command : new String[] { "PAGE", "PAGE x", "PAGE -2",
+					"PAGE 1" }) {
+				out.write((command + "\n").getBytes("US-ASCII"));
+				out.write(page);
+				out.flush();
+				assertEquals(command, command.equals("PAGE 1") ? "PAGEOK"
+						: "PAGEERROR", in.readLine());
+			}
+		} finally {
+			client.close();
+		}
+	}
+
+	/** starts serving a connection, returns the client side */
+	private static PipeTransport serve() {
+		final PipeTransport[] pair = PipeTransport.createPair();
+		Thread server = new Thread(new Runnable() {
+			public void run() {
+				try {
+					new BeagleEmulator().serve(pair[0]);
+				} catch (IOException e) {
+					// closed by the test
+				}
+			}
+		});
+		server.setDaemon(true);
+		server.start();
+		return pair[1];
+	}
+
+	private static BufferedReader reader(PipeTransport client)
+			throws IOException {
+		return new BufferedReader(new InputStreamReader(
+				client.getInputStream(), "US-ASCII"));
+	}
+}